@@ -11,7 +11,12 @@ import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.display.ScreenDimensions;
 import com.bytezone.dm3270.plugins.PluginsStage;
 import com.bytezone.dm3270.session.Session;
+import com.bytezone.dm3270.streams.SelectorManager;
+import com.bytezone.dm3270.streams.SpyServer;
 import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.streams.ThreadManager;
+import com.bytezone.dm3270.streams.TrafficCounters;
+import com.bytezone.dm3270.streams.WriteQueue;
 import com.bytezone.dm3270.utilities.Dm3270Utility;
 import com.bytezone.dm3270.utilities.Site;
 import com.bytezone.dm3270.utilities.WindowSaver;
@@ -60,6 +65,20 @@ public class Console extends Application
     for (String raw : getParameters ().getRaw ())
       if (raw.equalsIgnoreCase ("-reset"))
         prefs.clear ();
+      else if (raw.equalsIgnoreCase ("-nio"))
+        SelectorManager.setEnabled (true, 0);
+      else if (raw.toLowerCase ().startsWith ("-nio="))
+        SelectorManager.setEnabled (true, Integer.parseInt (raw.substring (5)));
+      else if (raw.equalsIgnoreCase ("-virtual"))
+        ThreadManager.setMode (ThreadManager.Mode.VIRTUAL);
+      else if (raw.toLowerCase ().startsWith ("-writedelay="))
+        WriteQueue.setMaxDelay (Integer.parseInt (raw.substring (12)));
+      else if (raw.toLowerCase ().startsWith ("-spymax="))
+        SpyServer.setMaxConnections (Integer.parseInt (raw.substring (8)));
+      else if (raw.equalsIgnoreCase ("-spyasync"))
+        SpyServer.setForwardFirst (true);
+      else if (raw.toLowerCase ().startsWith ("-traffic="))
+        TrafficCounters.logTotals (Integer.parseInt (raw.substring (9)));
 
     if (false)
     {
@@ -251,7 +270,7 @@ public class Console extends Application
 
   private void setSpyPane (Screen screen, Site server, Site client)
   {
-    spyPane = new SpyPane (screen, server, client, telnetState);
+    spyPane = new SpyPane (screen, server, client, telnetState, optionStage.spyFolder);
 
     primaryStage.setScene (new Scene (spyPane));
     primaryStage.setTitle ("Terminal Spy");
@@ -295,6 +314,8 @@ public class Console extends Application
 
     if (screen != null)
       screen.close ();
+
+    SelectorManager.shutdown ();
   }
 
   private void savePreferences ()
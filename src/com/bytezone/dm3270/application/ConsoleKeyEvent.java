@@ -23,6 +23,20 @@ public class ConsoleKeyEvent implements EventHandler<KeyEvent>
   {
     if (e.getEventType () != KeyEvent.KEY_TYPED)
       return;
+
+    screen.lockModel ();                    // the session thread may be changing it
+    try
+    {
+      keyTyped (e);
+    }
+    finally
+    {
+      screen.unlockModel ();
+    }
+  }
+
+  private void keyTyped (KeyEvent e)
+  {
     String c = e.getCharacter ();
     if (c.isEmpty ())
       return;
@@ -32,6 +32,19 @@ class ConsoleKeyPress implements EventHandler<KeyEvent>
     if (keyEvent.getEventType () != KeyEvent.KEY_PRESSED)
       return;
 
+    screen.lockModel ();                    // the session thread may be changing it
+    try
+    {
+      keyPressed (keyEvent);
+    }
+    finally
+    {
+      screen.unlockModel ();
+    }
+  }
+
+  private void keyPressed (KeyEvent keyEvent)
+  {
     KeyCode keyCodePressed = keyEvent.getCode ();
 
     if (screen.isKeyboardLocked ())           // could be in screen history mode
@@ -11,9 +11,13 @@ import com.bytezone.dm3270.display.*;
 import com.bytezone.dm3270.extended.CommandHeader;
 import com.bytezone.dm3270.extended.TN3270ExtendedCommand;
 import com.bytezone.dm3270.plugins.PluginsStage;
+import com.bytezone.dm3270.streams.NioTerminalServer;
+import com.bytezone.dm3270.streams.SelectorManager;
+import com.bytezone.dm3270.streams.ServerConnection;
 import com.bytezone.dm3270.streams.TelnetListener;
 import com.bytezone.dm3270.streams.TelnetState;
 import com.bytezone.dm3270.streams.TerminalServer;
+import com.bytezone.dm3270.streams.ThreadManager;
 import com.bytezone.dm3270.utilities.Dm3270Utility;
 import com.bytezone.dm3270.utilities.Site;
 
@@ -52,7 +56,7 @@ public class ConsolePane extends BorderPane
   private int commandHeaderCount;
   private final Site server;
 
-  private TerminalServer terminalServer;
+  private ServerConnection terminalServer;
   private Thread terminalServerThread;
 
   private HistoryManager screenHistory;             // null unless showing screen history 
@@ -232,6 +236,19 @@ public class ConsolePane extends BorderPane
   }
 
   private void toggleHistory ()
+  {
+    screen.lockModel ();                  // pause() and resume() change the keyboard
+    try
+    {
+      switchHistory ();
+    }
+    finally
+    {
+      screen.unlockModel ();
+    }
+  }
+
+  private void switchHistory ()
   {
     if (screenHistory == null)                  // in normal screen mode
     {
@@ -280,13 +297,24 @@ public class ConsolePane extends BorderPane
   // called from TSOCommand.execute()
   public void sendAID (byte aid, String name)
   {
-    if (screen.isInsertMode ())
-      screen.toggleInsertMode ();
+    AIDCommand command;
 
-    screen.lockKeyboard (name);
-    screen.setAID (aid);
+    screen.lockModel ();                    // the session thread may be changing it
+    try
+    {
+      if (screen.isInsertMode ())
+        screen.toggleInsertMode ();
+
+      screen.lockKeyboard (name);
+      screen.setAID (aid);
+
+      command = screen.readModifiedFields ();
+    }
+    finally
+    {
+      screen.unlockModel ();
+    }
 
-    AIDCommand command = screen.readModifiedFields ();
     sendAID (command);
   }
 
@@ -294,6 +322,7 @@ public class ConsolePane extends BorderPane
   public void sendAID (AIDCommand command)
   {
     assert telnetState != null;
+    telnetState.getTraffic ().count (command);
 
     if (telnetState.does3270Extended ())
     {
@@ -317,14 +346,50 @@ public class ConsolePane extends BorderPane
     // set preferences for this session
     telnetState.setDo3270Extended (server.getExtended ());
     telnetState.setDoTerminalType (true);
+    telnetState.setKeepAliveInterval (getKeepAliveInterval ());
+    telnetState.getTraffic ().register (server.getName ());
 
     telnetListener = new TelnetListener (screen, telnetState);
-    terminalServer =
-        new TerminalServer (server.getURL (), server.getPort (), telnetListener);
-    telnetState.setTerminalServer (terminalServer);
 
-    terminalServerThread = new Thread (terminalServer);
-    terminalServerThread.start ();
+    if (SelectorManager.isEnabled ())
+    {
+      // multiplexed on one of the SelectorManager threads
+      NioTerminalServer nioTerminalServer =
+          new NioTerminalServer (server.getURL (), server.getPort (), telnetListener);
+      terminalServer = nioTerminalServer;
+      telnetState.setTerminalServer (terminalServer);
+      nioTerminalServer.connect ();
+    }
+    else
+    {
+      TerminalServer blockingTerminalServer =
+          new TerminalServer (server.getURL (), server.getPort (), telnetListener);
+      terminalServer = blockingTerminalServer;
+      telnetState.setTerminalServer (terminalServer);
+
+      terminalServerThread =
+          ThreadManager.start (blockingTerminalServer, "TerminalServer");
+    }
+  }
+
+  // the site's keep-alive interval in seconds, from a 'keepalive=n' line in prefs.txt
+  private int getKeepAliveInterval ()
+  {
+    Optional<SiteParameters> sp = parameters.getSiteParameters (server.getName ());
+    if (sp.isPresent ())
+    {
+      String keepAlive = sp.get ().getParameter ("keepalive");
+      if (!keepAlive.isEmpty ())
+        try
+        {
+          return Integer.parseInt (keepAlive.trim ());
+        }
+        catch (NumberFormatException e)
+        {
+          System.out.println ("Invalid keepalive value: " + keepAlive);
+        }
+    }
+    return TelnetState.DEFAULT_KEEP_ALIVE;
   }
 
   public void disconnect ()
@@ -333,6 +398,7 @@ public class ConsolePane extends BorderPane
       terminalServer.close ();
 
     telnetState.close ();
+    telnetState.getTraffic ().unregister ();
 
     if (terminalServerThread != null)
     {
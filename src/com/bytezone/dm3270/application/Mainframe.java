@@ -1,8 +1,9 @@
 package com.bytezone.dm3270.application;
 
 import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.streams.MainframeConnection;
 
 public interface Mainframe
 {
-  public void receiveCommand (Command command);
-}
\ No newline at end of file
+  public void receiveCommand (MainframeConnection connection, Command command);
+}
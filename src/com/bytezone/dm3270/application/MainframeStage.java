@@ -26,9 +26,11 @@ import com.bytezone.dm3270.orders.TextOrder;
 import com.bytezone.dm3270.session.Session;
 import com.bytezone.dm3270.session.SessionRecord;
 import com.bytezone.dm3270.session.SessionRecord.SessionRecordType;
+import com.bytezone.dm3270.streams.MainframeConnection;
 import com.bytezone.dm3270.streams.MainframeServer;
 import com.bytezone.dm3270.streams.TelnetSocket.Source;
 import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.streams.ThreadManager;
 import com.bytezone.dm3270.utilities.GuiFactory;
 
 import javafx.application.Platform;
@@ -37,6 +39,7 @@ import javafx.beans.value.ObservableValue;
 import javafx.geometry.Orientation;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.Separator;
 import javafx.scene.control.Toggle;
@@ -55,6 +58,7 @@ public class MainframeStage extends Stage implements Mainframe
   private static boolean NUMERIC = true;
 
   private final List<Button> buttons = new ArrayList<> ();
+  private final List<SessionRecord> buttonRecords = new ArrayList<> ();
   private MainframeServer mainframeServer;
   private final TelnetState telnetState;
 
@@ -69,6 +73,7 @@ public class MainframeStage extends Stage implements Mainframe
   private final Button btnProgramTab1;
   private final Button btnProgramTab2;
   private final Button btnProgramTab3;
+  private final CheckBox chkAutoUnlock;
 
   private final CommandFactory commandFactory = new CommandFactory ();
 
@@ -114,6 +119,10 @@ public class MainframeStage extends Stage implements Mainframe
     btnCharacterMode = gui.getRadioButton ("Character Mode", vbox2, modeGroup);
     btnFieldMode.setSelected (true);                    // match the default setting
 
+    // answer every AID with an unlock, so that terminals can be driven in a loop
+    chkAutoUnlock = new CheckBox ("Auto unlock");
+    vbox2.getChildren ().add (chkAutoUnlock);
+
     modeGroup.selectedToggleProperty ().addListener (new OnToggleHandler ());
 
     BorderPane borderPane = new BorderPane ();
@@ -134,7 +143,7 @@ public class MainframeStage extends Stage implements Mainframe
 
   public void startServer ()
   {
-    new Thread (mainframeServer).start ();
+    ThreadManager.start (mainframeServer, "MainframeServer");
   }
 
   private SessionRecord createCommand ()
@@ -227,6 +236,7 @@ public class MainframeStage extends Stage implements Mainframe
           Button button = buttons.get (buttonNo);
           button.setOnAction (x -> mainframeServer
               .write (sessionRecord.getMessage ().getTelnetData ()));
+          buttonRecords.add (sessionRecord);
 
           if (buttonNo < labels.size ())
             button.setText (labels.get (buttonNo));
@@ -263,19 +273,35 @@ public class MainframeStage extends Stage implements Mainframe
   }
 
   @Override
-  public void receiveCommand (Command command)
+  public void receiveCommand (MainframeConnection connection, Command command)
   {
+    // each terminal gets its own opening screens once it has answered the query
     if (command instanceof ReadStructuredFieldCommand)
+    {
       enableButtons (true);
+      writeRecord (connection, 3);          // ISPF (Erase Write)
+      writeRecord (connection, 4);          // 3.4  (Write)
+    }
 
-    if (command instanceof AIDCommand && ((AIDCommand) command).isPAKey ())
+    if (command instanceof AIDCommand)
     {
-      mainframeServer.write (commandFactory.createSetReplyModeCommand ((byte) 2));
-      mainframeServer
-          .write (commandFactory.createReadBufferCommand (Command.READ_MODIFIED_ALL_6E));
+      if (((AIDCommand) command).isPAKey ())
+      {
+        connection.write (commandFactory.createSetReplyModeCommand ((byte) 2));
+        connection.write (
+            commandFactory.createReadBufferCommand (Command.READ_MODIFIED_ALL_6E));
+      }
+      else if (chkAutoUnlock.isSelected ())
+        writeRecord (connection, 0);        // Unlock keyboard
     }
   }
 
+  private void writeRecord (MainframeConnection connection, int buttonNo)
+  {
+    if (buttonNo < buttonRecords.size ())
+      connection.write (buttonRecords.get (buttonNo).getMessage ().getTelnetData ());
+  }
+
   private void enableButtons (boolean enable)
   {
     for (Button button : buttons)
@@ -294,8 +320,6 @@ public class MainframeStage extends Stage implements Mainframe
     btnCharacterMode.setDisable (!enable);
 
     toFront ();
-    buttons.get (3).fire ();          // ISPF (Erase Write)
-    buttons.get (4).fire ();          // 3.4  (Write)
     this.requestFocus ();
     buttons.get (4).requestFocus ();
   }
@@ -7,6 +7,7 @@ import com.bytezone.dm3270.session.Session;
 import com.bytezone.dm3270.session.SessionTable;
 import com.bytezone.dm3270.streams.SpyServer;
 import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.streams.ThreadManager;
 import com.bytezone.dm3270.utilities.Site;
 
 import javafx.geometry.Insets;
@@ -29,7 +30,7 @@ public class SpyPane extends BorderPane
   private final TelnetState telnetState;
 
   public SpyPane (Screen screen, Site serverSite, Site clientSite,
-      TelnetState telnetState)
+      TelnetState telnetState, String spyFolder)
   {
     this.telnetState = telnetState;
 
@@ -38,6 +39,7 @@ public class SpyPane extends BorderPane
 
     spyServer = new SpyServer (serverSite, clientSite.getPort (), session, telnetState);
     spyServer.setScreen (screen);
+    spyServer.setRecordingFolder (spyFolder);
 
     final Label label = session.getHeaderLabel ();
     label.setFont (new Font ("Arial", 20));
@@ -106,8 +108,7 @@ public class SpyPane extends BorderPane
 
   public void startServer ()
   {
-    serverThread = new Thread (spyServer);
-    serverThread.start ();
+    serverThread = ThreadManager.start (spyServer, "SpyServer");
   }
 
   public void disconnect ()
@@ -56,6 +56,12 @@ public abstract class Attribute
   public abstract ScreenContext process (ContextManager contextManager,
       ScreenContext defaultContext, ScreenContext currentContext);
 
+  // called from ScreenBuffer.getKey()
+  public byte getAttributeCode ()
+  {
+    return attributeCode;
+  }
+
   public byte getAttributeValue ()
   {
     return attributeValue;
@@ -0,0 +1,183 @@
+package com.bytezone.dm3270.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bytezone.dm3270.display.ContextManager;
+import com.bytezone.dm3270.streams.LatencyRecorder;
+import com.bytezone.dm3270.streams.ThreadManager;
+
+// Headless load generator. Opens a number of simulated terminals (LoadSession) against
+// any TN3270 host - for instance the MainframeServer with 'Auto unlock' selected - and
+// has each of them run the same loop: wait for the keyboard to unlock, fill in some
+// fields, press ENTER. Reports throughput every second, then the connect, first screen
+// and response time percentiles. JavaFX is never started.
+//
+// usage: LoadGenerator [-host=localhost] [-port=5555] [-sessions=10]
+//                      [-transactions=100] [-think=0] [-fields=1] [-text=LOADTEST]
+//                      [-virtual]
+
+public class LoadGenerator
+{
+  private String host = "localhost";
+  private int port = 5555;
+  private int sessions = 10;
+  private int transactions = 100;
+  private int thinkTime;                // milliseconds before each AID
+  private int fields = 1;               // unprotected fields to fill in
+  private String text = "LOADTEST";
+
+  private final LatencyRecorder connectTime = new LatencyRecorder ("Connect");
+  private final LatencyRecorder firstScreenTime = new LatencyRecorder ("First screen");
+  private final LatencyRecorder responseTime = new LatencyRecorder ("Response");
+
+  private final AtomicLong totalTransactions = new AtomicLong ();
+  private final AtomicInteger failedSessions = new AtomicInteger ();
+  private CountDownLatch finished;
+
+  private void setOption (String arg)
+  {
+    String option = arg.toLowerCase ();
+    String value = arg.substring (arg.indexOf ('=') + 1);
+
+    if (option.startsWith ("-host="))
+      host = value;
+    else if (option.startsWith ("-port="))
+      port = Integer.parseInt (value);
+    else if (option.startsWith ("-sessions="))
+      sessions = Integer.parseInt (value);
+    else if (option.startsWith ("-transactions="))
+      transactions = Integer.parseInt (value);
+    else if (option.startsWith ("-think="))
+      thinkTime = Integer.parseInt (value);
+    else if (option.startsWith ("-fields="))
+      fields = Integer.parseInt (value);
+    else if (option.startsWith ("-text="))
+      text = value;
+    else if (option.equals ("-virtual"))
+      ThreadManager.setMode (ThreadManager.Mode.VIRTUAL);
+    else
+      throw new IllegalArgumentException ("Unknown option: " + arg);
+  }
+
+  private void run () throws InterruptedException
+  {
+    System.out.printf ("%,d sessions x %,d transactions against %s:%d (%s threads)%n%n",
+                       sessions, transactions, host, port, ThreadManager.getMode ());
+
+    // one ContextManager for everyone, its pool of contexts is static
+    ContextManager contextManager = new ContextManager ();
+    finished = new CountDownLatch (sessions);
+
+    List<LoadSession> loadSessions = new ArrayList<> (sessions);
+    long start = System.nanoTime ();
+
+    for (int i = 0; i < sessions; i++)
+    {
+      LoadSession session = new LoadSession (this, i, contextManager);
+      loadSessions.add (session);
+      ThreadManager.start (session, "LoadSession-" + i);
+    }
+
+    System.out.println ("Seconds  Transactions  Per second");
+    System.out.println ("-------  ------------  ----------");
+
+    long lastCount = 0;
+    int seconds = 0;
+    while (!finished.await (1, TimeUnit.SECONDS))
+    {
+      long count = totalTransactions.get ();
+      System.out.printf ("%7d  %,12d  %,10d%n", ++seconds, count, count - lastCount);
+      lastCount = count;
+    }
+
+    double elapsed = (System.nanoTime () - start) / 1e9;
+    long count = totalTransactions.get ();
+
+    System.out.println ();
+    System.out.printf ("Sessions       %,9d   (%,d failed)%n", sessions,
+                       failedSessions.get ());
+    System.out.printf ("Transactions   %,9d   in %,.1f seconds = %,.1f per second%n",
+                       count, elapsed, count / elapsed);
+    System.out.println ();
+    System.out.println (connectTime.getSummary ());
+    System.out.println (firstScreenTime.getSummary ());
+    System.out.println (responseTime.getSummary ());
+    System.out.printf ("Response p90 %,8.1f us   p99.9 %,8.1f us%n",
+                       responseTime.getPercentile (90) / 1000.0,
+                       responseTime.getPercentile (99.9) / 1000.0);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called from the LoadSession threads
+  // ---------------------------------------------------------------------------------//
+
+  void transactionCompleted ()
+  {
+    totalTransactions.incrementAndGet ();
+  }
+
+  void sessionFinished (LoadSession session, int completed)
+  {
+    if (completed < transactions)
+      failedSessions.incrementAndGet ();
+    finished.countDown ();
+  }
+
+  String getHost ()
+  {
+    return host;
+  }
+
+  int getPort ()
+  {
+    return port;
+  }
+
+  int getTransactions ()
+  {
+    return transactions;
+  }
+
+  int getThinkTime ()
+  {
+    return thinkTime;
+  }
+
+  int getFields ()
+  {
+    return fields;
+  }
+
+  String getText ()
+  {
+    return text;
+  }
+
+  LatencyRecorder getConnectTime ()
+  {
+    return connectTime;
+  }
+
+  LatencyRecorder getFirstScreenTime ()
+  {
+    return firstScreenTime;
+  }
+
+  LatencyRecorder getResponseTime ()
+  {
+    return responseTime;
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    LoadGenerator generator = new LoadGenerator ();
+    for (String arg : args)
+      generator.setOption (arg);
+    generator.run ();
+  }
+}
@@ -0,0 +1,266 @@
+package com.bytezone.dm3270.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Optional;
+
+import com.bytezone.dm3270.buffers.Buffer;
+import com.bytezone.dm3270.commands.AIDCommand;
+import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.commands.EraseAllUnprotectedCommand;
+import com.bytezone.dm3270.commands.ReadCommand;
+import com.bytezone.dm3270.commands.ReadStructuredFieldCommand;
+import com.bytezone.dm3270.commands.WriteCommand;
+import com.bytezone.dm3270.commands.WriteStructuredFieldCommand;
+import com.bytezone.dm3270.display.ContextManager;
+import com.bytezone.dm3270.display.HeadlessScreen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.streams.WriteQueue;
+import com.bytezone.dm3270.structuredfields.Outbound3270DS;
+import com.bytezone.dm3270.structuredfields.ReadPartitionSF;
+import com.bytezone.dm3270.structuredfields.StructuredField;
+import com.bytezone.dm3270.telnet.TN3270ExtendedSubcommand;
+import com.bytezone.dm3270.telnet.TelnetCommand;
+import com.bytezone.dm3270.telnet.TelnetCommandProcessor;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+import com.bytezone.dm3270.telnet.TelnetSubcommand;
+import com.bytezone.dm3270.telnet.TerminalTypeSubcommand;
+
+// One simulated terminal. It negotiates with its own TelnetState, parses every record
+// with Command.getCommand() and keeps a HeadlessScreen up to date. Each time the
+// keyboard is unlocked it fills in the first unprotected fields and presses ENTER,
+// and the time until the keyboard is unlocked again is the response time. Everything
+// happens on the session's own thread.
+
+class LoadSession implements Runnable, TelnetCommandProcessor
+{
+  private final LoadGenerator generator;
+  private final int id;
+
+  private final TelnetState telnetState = new TelnetState ();
+  private final TelnetProcessor telnetProcessor = new TelnetProcessor (this);
+  private final HeadlessScreen screen;
+  private final byte[] buffer = new byte[4096];
+
+  private Socket socket;
+  private WriteQueue writeQueue;
+  private volatile boolean running;
+
+  private long connected;
+  private long sent;                    // zero until the first AID has been sent
+  private int completed;
+
+  LoadSession (LoadGenerator generator, int id, ContextManager contextManager)
+  {
+    this.generator = generator;
+    this.id = id;
+
+    telnetState.setDo3270Extended (false);          // plain TN3270 records only
+    screen = new HeadlessScreen (new ScreenDimensions (24, 80), contextManager);
+  }
+
+  @Override
+  public void run ()
+  {
+    try
+    {
+      long start = System.nanoTime ();
+      socket = new Socket (generator.getHost (), generator.getPort ());
+      socket.setTcpNoDelay (true);
+      connected = System.nanoTime ();
+      generator.getConnectTime ().record (connected - start);
+
+      InputStream inputStream = socket.getInputStream ();
+      writeQueue = new WriteQueue (socket.getOutputStream ());
+
+      running = true;
+      while (running && completed < generator.getTransactions ())
+      {
+        int bytesRead = inputStream.read (buffer);      // blocks
+        if (bytesRead < 0)
+        {
+          System.out.printf ("Session %d: host closed the connection%n", id);
+          break;
+        }
+
+        // replies to everything in this buffer go out in a single write
+        writeQueue.beginTurn ();
+        try
+        {
+          telnetProcessor.listen (buffer, 0, bytesRead);
+          if (!screen.isKeyboardLocked ())
+            nextTransaction ();
+        }
+        finally
+        {
+          writeQueue.endTurn ();
+        }
+      }
+    }
+    catch (SocketException e)
+    {
+      if (running)
+        System.out.printf ("Session %d: %s%n", id, e.getMessage ());
+    }
+    catch (IOException | InterruptedException e)
+    {
+      System.out.printf ("Session %d: %s%n", id, e);
+    }
+    finally
+    {
+      generator.sessionFinished (this, completed);
+      close ();
+    }
+  }
+
+  private void nextTransaction () throws IOException, InterruptedException
+  {
+    long now = System.nanoTime ();
+    if (sent == 0)
+      generator.getFirstScreenTime ().record (now - connected);
+    else
+    {
+      generator.getResponseTime ().record (now - sent);
+      generator.transactionCompleted ();
+      if (++completed >= generator.getTransactions ())
+        return;
+    }
+
+    if (generator.getThinkTime () > 0)
+      Thread.sleep (generator.getThinkTime ());
+
+    int fields = Math.min (generator.getFields (), screen.getUnprotectedFieldCount ());
+    for (int i = 0; i < fields; i++)
+      screen.setFieldText (i, generator.getText ());
+
+    AIDCommand command = screen.readModifiedFields (AIDCommand.AID_ENTER, false);
+    screen.lockKeyboard ();
+    sent = System.nanoTime ();
+    writeQueue.write (command.getTelnetData ());
+  }
+
+  private void reply (Optional<Buffer> reply) throws IOException
+  {
+    if (reply.isPresent ())
+      writeQueue.write (reply.get ().getTelnetData ());
+  }
+
+  int getId ()
+  {
+    return id;
+  }
+
+  void close ()
+  {
+    running = false;
+    try
+    {
+      if (socket != null)
+        socket.close ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // TelnetCommandProcessor - the equivalent of TelnetListener without a Screen
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void processRecord (byte[] data, int dataPtr)
+  {
+    Command command = Command.getCommand (data, 0, dataPtr - 2);    // exclude IAC/EOR
+    try
+    {
+      process (command);
+    }
+    catch (IOException e)
+    {
+      System.out.printf ("Session %d: %s%n", id, e);
+      close ();
+    }
+  }
+
+  private void process (Command command) throws IOException
+  {
+    if (command instanceof WriteCommand)
+      screen.write ((WriteCommand) command);
+    else if (command instanceof EraseAllUnprotectedCommand)
+      screen.eraseAllUnprotected ();
+    else if (command instanceof ReadCommand)
+    {
+      ReadCommand readCommand = (ReadCommand) command;
+      if (readCommand.isReadBuffer ())
+        System.out.printf ("Session %d: Read Buffer not supported%n", id);
+      else
+        writeQueue.write (screen.readModifiedFields (AIDCommand.NO_AID_SPECIFIED,
+                                                     readCommand.isReadModifiedAll ())
+            .getTelnetData ());
+    }
+    else if (command instanceof WriteStructuredFieldCommand)
+      for (StructuredField structuredField : ((WriteStructuredFieldCommand) command)
+          .getStructuredFields ())
+      {
+        if (structuredField instanceof Outbound3270DS)
+          process (((Outbound3270DS) structuredField).getCommand ());
+        else if (structuredField instanceof ReadPartitionSF
+            && ((ReadPartitionSF) structuredField).isQuery ())
+        {
+          Command queryReply = new ReadStructuredFieldCommand (telnetState);
+          writeQueue.write (queryReply.getTelnetData ());
+        }
+      }
+  }
+
+  @Override
+  public void processData (byte[] data, int length)
+  {
+    System.out.printf ("Session %d: unknown telnet data received%n", id);
+  }
+
+  @Override
+  public void processTelnetCommand (byte[] data, int dataPtr)
+  {
+    TelnetCommand telnetCommand = new TelnetCommand (telnetState, data, dataPtr);
+    telnetCommand.process (null);                   // updates TelnetState
+    try
+    {
+      reply (telnetCommand.getReply ());
+    }
+    catch (IOException e)
+    {
+      close ();
+    }
+  }
+
+  @Override
+  public void processTelnetSubcommand (byte[] data, int dataPtr)
+  {
+    TelnetSubcommand subcommand;
+
+    if (data[2] == TelnetSubcommand.TERMINAL_TYPE)
+      subcommand = new TerminalTypeSubcommand (data, 0, dataPtr, telnetState);
+    else if (data[2] == TelnetSubcommand.TN3270E)
+      subcommand = new TN3270ExtendedSubcommand (data, 0, dataPtr, telnetState);
+    else
+    {
+      System.out.printf ("Session %d: unknown subcommand type: %02X%n", id, data[2]);
+      return;
+    }
+
+    subcommand.process (null);
+    try
+    {
+      reply (subcommand.getReply ());
+    }
+    catch (IOException e)
+    {
+      close ();
+    }
+  }
+}
@@ -0,0 +1,143 @@
+package com.bytezone.dm3270.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import com.bytezone.dm3270.streams.BufferListener;
+import com.bytezone.dm3270.streams.NioTerminalServer;
+import com.bytezone.dm3270.streams.SelectorManager;
+import com.bytezone.dm3270.streams.TelnetSocket.Source;
+
+// Checks the -nio transport against a pretend host on the loopback interface. The
+// host sends IAC DO TERMINAL-TYPE, and the listener answers IAC WILL TERMINAL-TYPE
+// from inside its listen() call, which runs on the selector thread - the way
+// TelnetListener answers the telnet negotiation. Then a buffer is written from this
+// thread, the way the FX thread sends an AID. Each reply must reach the host within
+// the timeout. It exits with status 1 if either of them doesn't.
+//
+// usage: NioLoopbackTest [-timeout=3000]
+
+public class NioLoopbackTest
+{
+  private static final byte IAC = (byte) 0xFF;
+  private static final byte DO = (byte) 0xFD;
+  private static final byte WILL = (byte) 0xFB;
+  private static final byte TERMINAL_TYPE = 0x18;
+
+  private static final byte[] doTerminalType = { IAC, DO, TERMINAL_TYPE };
+  private static final byte[] willTerminalType = { IAC, WILL, TERMINAL_TYPE };
+  private static final byte[] aid = { 0x7D, 0x40, 0x40, IAC, (byte) 0xEF };
+
+  private int timeout = 3000;               // milliseconds
+
+  private void setOption (String arg)
+  {
+    String option = arg.toLowerCase ();
+    String value = arg.substring (arg.indexOf ('=') + 1);
+
+    if (option.startsWith ("-timeout="))
+      timeout = Integer.parseInt (value);
+    else
+      throw new IllegalArgumentException ("Unknown option: " + arg);
+  }
+
+  private boolean run () throws IOException
+  {
+    InetAddress loopback = InetAddress.getLoopbackAddress ();
+    try (ServerSocket host = new ServerSocket (0, 1, loopback))
+    {
+      Responder responder = new Responder ();
+      NioTerminalServer terminal = new NioTerminalServer (loopback.getHostAddress (),
+          host.getLocalPort (), responder);
+      responder.terminal = terminal;
+      terminal.connect ();
+
+      try (Socket socket = host.accept ())
+      {
+        socket.setSoTimeout (timeout);
+        InputStream inputStream = socket.getInputStream ();
+
+        socket.getOutputStream ().write (doTerminalType);
+        socket.getOutputStream ().flush ();
+        boolean negotiated = check ("negotiation reply", inputStream, willTerminalType);
+
+        terminal.write (aid);
+        boolean written = check ("write from another thread", inputStream, aid);
+
+        terminal.close ();
+        return negotiated && written;
+      }
+    }
+    finally
+    {
+      SelectorManager.shutdown ();
+    }
+  }
+
+  private boolean check (String name, InputStream inputStream, byte[] expected)
+      throws IOException
+  {
+    byte[] buffer = new byte[expected.length];
+    int total = 0;
+    try
+    {
+      while (total < buffer.length)
+      {
+        int bytesRead = inputStream.read (buffer, total, buffer.length - total);
+        if (bytesRead < 0)
+          break;
+        total += bytesRead;
+      }
+    }
+    catch (SocketTimeoutException e)
+    {
+      // reported below
+    }
+
+    boolean passed = total == buffer.length && Arrays.equals (buffer, expected);
+    if (passed)
+      System.out.printf ("%-26s ok%n", name);
+    else if (total == 0)
+      System.out.printf ("%-26s NO REPLY within %,d ms%n", name, timeout);
+    else
+      System.out.printf ("%-26s wrong reply: %s%n", name,
+                         Arrays.toString (Arrays.copyOf (buffer, total)));
+    return passed;
+  }
+
+  // answers the host's DO TERMINAL-TYPE on the selector thread
+  private static class Responder implements BufferListener
+  {
+    private volatile NioTerminalServer terminal;
+
+    @Override
+    public void listen (Source targetRole, byte[] message, LocalDateTime dateTime,
+        boolean genuine)
+    {
+      if (Arrays.equals (message, doTerminalType))
+        terminal.write (willTerminalType);
+    }
+
+    @Override
+    public void close ()
+    {
+    }
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    NioLoopbackTest test = new NioLoopbackTest ();
+    for (String arg : args)
+      test.setOption (arg);
+
+    SelectorManager.setEnabled (true, 1);
+    if (!test.run ())
+      System.exit (1);
+  }
+}
@@ -0,0 +1,535 @@
+package com.bytezone.dm3270.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.commands.ReadStructuredFieldCommand;
+import com.bytezone.dm3270.commands.WriteCommand;
+import com.bytezone.dm3270.display.ContextManager;
+import com.bytezone.dm3270.display.HeadlessScreen;
+import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.orders.Order;
+import com.bytezone.dm3270.orders.OrderStream;
+import com.bytezone.dm3270.session.SessionReader;
+import com.bytezone.dm3270.streams.TelnetSocket.Source;
+import com.bytezone.dm3270.streams.TelnetState;
+import com.bytezone.dm3270.telnet.TelnetCommandProcessor;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+
+// Regression numbers for the protocol layer, measured on the server side of recorded
+// spy sessions. Each stage of the parsing pipeline is run on its own, single-threaded,
+// for a warm-up period and then for a fixed time, and reports how many items and MB it
+// gets through per second and how much it allocates. The allocation figures come from
+// the JVM's per-thread allocation counter, so they include everything the stage
+// creates, garbage or not.
+//
+//   listen         TelnetProcessor.listen() on the recorded stream in 4096 byte chunks
+//   getCommand     Command.getCommand() on every 3270 record
+//   WriteCommand   new WriteCommand() on every Write / Erase Write record
+//   OrderStream    new OrderStream() - decoding the orders in those records
+//   getOrder       Order.getOrder() on every order in those records
+//   apply Orders   the Writes' Order objects processed on a HeadlessScreen
+//   apply stream   the same Writes' OrderStreams processed on a HeadlessScreen
+//   build fields   HeadlessScreen.write() - the same, then dividing it into fields,
+//                  which also reports the garbage collections while it ran
+//   query reply    new ReadStructuredFieldCommand (telnetState) - the RSF query reply
+//   getTelnetData  AbstractBuffer.getTelnetData() (doubling any 0xFF) on every command
+//
+// Finally it counts how many screen positions each Write leaves to be repainted, which
+// is what Screen.draw() now paints, against the whole screen that it used to paint,
+// and times finding the field at a position on every screen that has fields:
+//
+//   field stream   a parallel stream over the fields, as getFieldAt() used to do it
+//   field index    the position's entry in the index that buildFields() now keeps
+//
+// usage: ParserBenchmark [-seconds=3] [-warmup=2] [-screen=24x80] spy file ...
+
+public class ParserBenchmark
+{
+  private static final int CHUNK_SIZE = 4096;
+  private static final int LOOKUP_STEP = 61;      // positions between field lookups
+
+  private int seconds = 3;
+  private int warmup = 2;
+  private ScreenDimensions screenDimensions = new ScreenDimensions (24, 80);
+  private final List<Path> files = new ArrayList<> ();
+
+  private final com.sun.management.ThreadMXBean threadBean;
+  private long sink;                    // stops the JIT from discarding the results
+
+  public ParserBenchmark ()
+  {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean ();
+    threadBean = bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported ()
+            ? (com.sun.management.ThreadMXBean) bean : null;
+  }
+
+  private void setOption (String arg)
+  {
+    String option = arg.toLowerCase ();
+    String value = arg.substring (arg.indexOf ('=') + 1);
+
+    if (option.startsWith ("-seconds="))
+      seconds = Integer.parseInt (value);
+    else if (option.startsWith ("-warmup="))
+      warmup = Integer.parseInt (value);
+    else if (option.startsWith ("-screen="))
+    {
+      String[] size = option.substring (8).split ("x");
+      screenDimensions =
+          new ScreenDimensions (Integer.parseInt (size[0]), Integer.parseInt (size[1]));
+    }
+    else if (option.startsWith ("-"))
+      throw new IllegalArgumentException ("Unknown option: " + arg);
+    else
+      files.add (Paths.get (arg));
+  }
+
+  private void run () throws Exception
+  {
+    if (files.isEmpty ())
+    {
+      System.out.println ("usage: ParserBenchmark [-seconds=3] [-warmup=2] "
+          + "[-screen=24x80] spy file ...");
+      return;
+    }
+
+    Recording recording = new Recording ();
+    for (Path file : files)
+      recording.add (file);
+
+    System.out.printf ("%,d bytes, %,d 3270 records (%,d writes with %,d orders)%n%n",
+                       recording.stream.length, recording.commands.size (),
+                       recording.writes.size (), recording.totalOrders);
+
+    if (threadBean == null)
+      System.out.println ("Allocation counters are not available on this JVM\n");
+
+    System.out.println ("Stage                 Items/s        MB/s   Alloc MB/s"
+        + "   Bytes/item");
+    System.out.println ("-------------   ------------   ---------   ----------"
+        + "   ----------");
+
+    TelnetProcessor telnetProcessor = new TelnetProcessor (new Sink ());
+    byte[] stream = recording.stream;
+    measure ("listen", recording.records, stream.length, () ->
+    {
+      for (int ptr = 0; ptr < stream.length; ptr += CHUNK_SIZE)
+        telnetProcessor.listen (stream, ptr, Math.min (CHUNK_SIZE, stream.length - ptr));
+    });
+
+    measure ("getCommand", recording.commands.size (), recording.commandBytes, () ->
+    {
+      for (Record record : recording.commands)
+        sink += Command.getCommand (record.data, record.offset, record.length).size ();
+    });
+
+    measure ("WriteCommand", recording.writes.size (), recording.writeBytes, () ->
+    {
+      for (Record record : recording.writes)
+        sink += new WriteCommand (record.data, record.offset, record.length).size ();
+    });
+
+    measure ("OrderStream", recording.writes.size (), recording.writeBytes, () ->
+    {
+      for (Record record : recording.writes)
+        sink += new OrderStream (record.data, record.offset + 2,
+            record.offset + record.length).size ();
+    });
+
+    measure ("getOrder", recording.totalOrders, recording.writeBytes, () ->
+    {
+      for (Record record : recording.writes)
+      {
+        int ptr = record.offset + 2;                // skip the command and WCC
+        int max = record.offset + record.length;
+        while (ptr < max)
+        {
+          Order order = Order.getOrder (record.data, ptr, max);
+          if (order.rejected ())
+            break;
+          ptr += order.size ();
+        }
+        sink += ptr;
+      }
+    });
+
+    HeadlessScreen screen = new HeadlessScreen (screenDimensions, new ContextManager ());
+    measure ("apply Orders", recording.writes.size (), recording.writeBytes, () ->
+    {
+      for (Record record : recording.writes)
+      {
+        WriteCommand command =
+            new WriteCommand (record.data, record.offset, record.length);
+        if (command.isEraseWrite ())
+          screen.clearScreen ();
+        for (Order order : command.getOrdersList ())
+          order.process (screen);
+      }
+    });
+
+    measure ("apply stream", recording.writes.size (), recording.writeBytes, () ->
+    {
+      for (Record record : recording.writes)
+      {
+        WriteCommand command =
+            new WriteCommand (record.data, record.offset, record.length);
+        if (command.isEraseWrite ())
+          screen.clearScreen ();
+        command.getOrderStream ().process (screen);
+      }
+    });
+
+    List<WriteCommand> writeCommands = new ArrayList<> ();
+    for (Record record : recording.writes)
+      writeCommands.add (new WriteCommand (record.data, record.offset, record.length));
+    long[] collectionsBefore = getCollections ();
+    measure ("build fields", writeCommands.size (), recording.writeBytes, () ->
+    {
+      for (WriteCommand command : writeCommands)
+        screen.write (command);
+    });
+    long[] collectionsAfter = getCollections ();
+
+    TelnetState telnetState = new TelnetState ();
+    int replySize = new ReadStructuredFieldCommand (telnetState).size ();
+    measure ("query reply", 1, replySize, () ->
+    {
+      sink += new ReadStructuredFieldCommand (telnetState).size ();
+    });
+
+    List<Command> commands = new ArrayList<> ();
+    for (Record record : recording.commands)
+      commands.add (Command.getCommand (record.data, record.offset, record.length));
+    measure ("getTelnetData", commands.size (), recording.commandBytes, () ->
+    {
+      for (Command command : commands)
+        sink += command.getTelnetData ().length;
+    });
+
+    if (sink == 42)
+      System.out.println ();        // never happens, but the JIT doesn't know that
+
+    System.out.printf ("%nGarbage collection during build fields (with warm-up): "
+        + "%,d collections, %,d ms%n", collectionsAfter[0] - collectionsBefore[0],
+                       collectionsAfter[1] - collectionsBefore[1]);
+
+    countRepaints (recording);
+    compareFieldLookups (recording);
+  }
+
+  // the time to paint a screen is proportional to the number of positions drawn
+  private void countRepaints (Recording recording)
+  {
+    HeadlessScreen screen = new HeadlessScreen (screenDimensions, new ContextManager ());
+    screen.getChangedPositions ();
+
+    long changed = 0;
+    int eraseWrites = 0;
+    for (Record record : recording.writes)
+    {
+      WriteCommand command = new WriteCommand (record.data, record.offset, record.length);
+      if (command.isEraseWrite ())
+        ++eraseWrites;
+      screen.write (command);
+      changed += screen.getChangedPositions ();
+    }
+
+    int writes = recording.writes.size ();
+    long whole = (long) writes * screenDimensions.size;
+
+    System.out.printf ("%nPositions repainted per write (%,d writes, %,d erase writes)%n",
+                       writes, eraseWrites);
+    System.out.printf ("  %-14s %,8.0f%n", "whole screen", (double) whole / writes);
+    System.out.printf ("  %-14s %,8.0f  (%.1f%%)%n", "changed only",
+                       (double) changed / writes, changed * 100.0 / whole);
+  }
+
+  // FieldManager.getFieldAt() runs for every cursor move and plugin field change
+  private void compareFieldLookups (Recording recording)
+  {
+    HeadlessScreen screen = new HeadlessScreen (screenDimensions, new ContextManager ());
+    List<FieldScreen> screens = new ArrayList<> ();
+
+    for (Record record : recording.writes)
+    {
+      screen.write (new WriteCommand (record.data, record.offset, record.length));
+      if (screen.getFieldCount () > 0)
+        screens.add (new FieldScreen (screen, screenDimensions.size));
+    }
+
+    if (screens.isEmpty ())
+      return;
+
+    // a spread of positions on each screen rather than all of them
+    int lookups = (screenDimensions.size + LOOKUP_STEP - 1) / LOOKUP_STEP;
+    int bytes = lookups * 4;
+
+    System.out.printf ("%nField lookups on %,d screens%n", screens.size ());
+    measure ("field stream", screens.size () * lookups, screens.size () * bytes, () ->
+    {
+      for (FieldScreen fieldScreen : screens)
+        for (int position = 0; position < fieldScreen.size; position += LOOKUP_STEP)
+        {
+          int p = position;
+          Optional<FieldRange> field = fieldScreen.fields.parallelStream ()
+              .filter (f -> f.contains (p)).findAny ();
+          sink += field.isPresent () ? field.get ().start : 0;
+        }
+    });
+
+    measure ("field index", screens.size () * lookups, screens.size () * bytes, () ->
+    {
+      for (FieldScreen fieldScreen : screens)
+        for (int position = 0; position < fieldScreen.size; position += LOOKUP_STEP)
+        {
+          int fieldNo = fieldScreen.fieldIndex[position];
+          sink += fieldNo < 0 ? 0 : fieldScreen.fields.get (fieldNo).start;
+        }
+    });
+  }
+
+  // collections so far, and the milliseconds they took, for every collector
+  private static long[] getCollections ()
+  {
+    long[] totals = new long[2];
+    for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans ())
+    {
+      totals[0] += Math.max (0, bean.getCollectionCount ());    // -1 if not known
+      totals[1] += Math.max (0, bean.getCollectionTime ());
+    }
+    return totals;
+  }
+
+  // runs the pass repeatedly for the warm-up period, then measures it
+  private void measure (String name, long itemsPerPass, long bytesPerPass, Runnable pass)
+  {
+    long end = System.nanoTime () + warmup * 1_000_000_000L;
+    while (System.nanoTime () < end)
+      pass.run ();
+
+    long threadId = Thread.currentThread ().getId ();
+    long allocatedBefore =
+        threadBean == null ? 0 : threadBean.getThreadAllocatedBytes (threadId);
+    long start = System.nanoTime ();
+    end = start + seconds * 1_000_000_000L;
+    long passes = 0;
+    do
+    {
+      pass.run ();
+      ++passes;
+    } while (System.nanoTime () < end);
+
+    double elapsed = (System.nanoTime () - start) / 1e9;
+    long allocated = threadBean == null ? 0
+        : threadBean.getThreadAllocatedBytes (threadId) - allocatedBefore;
+
+    long items = passes * itemsPerPass;
+    double megabyte = 1024 * 1024;
+    System.out.printf ("%-13s   %,12.0f   %,9.1f   %,10.1f   %,10.0f%n", name,
+                       items / elapsed, passes * bytesPerPass / elapsed / megabyte,
+                       allocated / elapsed / megabyte, (double) allocated / items);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // The recorded records, found with a TelnetProcessor just as they are when running
+  // ---------------------------------------------------------------------------------//
+
+  private static class Recording implements TelnetCommandProcessor
+  {
+    private final ByteArrayOutputStream streamBuilder = new ByteArrayOutputStream ();
+    private final List<Record> commands = new ArrayList<> ();
+    private final List<Record> writes = new ArrayList<> ();
+
+    private byte[] stream;
+    private int records;                // of any kind, including telnet commands
+    private long commandBytes;
+    private long writeBytes;
+    private int totalOrders;
+
+    void add (Path file) throws Exception
+    {
+      SessionReader server = new SessionReader (Source.SERVER, file);
+
+      int bytesRead;
+      while ((bytesRead = server.next ()) > 0)
+        streamBuilder.write (server.buffer, 0, bytesRead);
+
+      stream = streamBuilder.toByteArray ();
+      commands.clear ();
+      writes.clear ();
+      records = 0;
+      commandBytes = writeBytes = totalOrders = 0;
+      new TelnetProcessor (this).listen (stream, 0, stream.length);
+    }
+
+    @Override
+    public void processRecord (byte[] buffer, int dataPtr)
+    {
+      ++records;
+      byte[] data = Arrays.copyOf (buffer, dataPtr - 2);      // exclude IAC/EOR
+
+      // skip the TN3270E header if the session was using one
+      int offset = isCommand (data, 0) ? 0 : isCommand (data, 5) ? 5 : -1;
+      if (offset < 0)
+        return;
+
+      Record record = new Record (data, offset);
+      commands.add (record);
+      commandBytes += record.length;
+
+      if (Command.getCommand (data, offset, record.length) instanceof WriteCommand)
+      {
+        writes.add (record);
+        writeBytes += record.length;
+        totalOrders += new WriteCommand (data, offset, record.length).getOrdersList ()
+            .size ();
+      }
+    }
+
+    private boolean isCommand (byte[] data, int offset)
+    {
+      if (data.length <= offset || offset > 0 && data[0] != 0)   // 0 = 3270-DATA
+        return false;
+
+      switch (data[offset])
+      {
+        case Command.WRITE_F1:
+        case Command.WRITE_01:
+        case Command.ERASE_WRITE_F5:
+        case Command.ERASE_WRITE_05:
+        case Command.ERASE_WRITE_ALTERNATE_7E:
+        case Command.ERASE_WRITE_ALTERNATE_0D:
+        case Command.ERASE_ALL_UNPROTECTED_6F:
+        case Command.ERASE_ALL_UNPROTECTED_0F:
+        case Command.READ_BUFFER_F2:
+        case Command.READ_BUFFER_02:
+        case Command.READ_MODIFIED_F6:
+        case Command.READ_MODIFIED_06:
+        case Command.READ_MODIFIED_ALL_6E:
+        case Command.READ_MODIFIED_ALL_0E:
+        case Command.WRITE_STRUCTURED_FIELD_F3:
+        case Command.WRITE_STRUCTURED_FIELD_11:
+          return true;
+
+        default:
+          return false;
+      }
+    }
+
+    @Override
+    public void processData (byte[] data, int length)
+    {
+    }
+
+    @Override
+    public void processTelnetCommand (byte[] data, int dataPtr)
+    {
+      ++records;
+    }
+
+    @Override
+    public void processTelnetSubcommand (byte[] data, int dataPtr)
+    {
+      ++records;
+    }
+  }
+
+  private static class Record
+  {
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    Record (byte[] data, int offset)
+    {
+      this.data = data;
+      this.offset = offset;
+      this.length = data.length - offset;
+    }
+  }
+
+  // the fields on one screen, and the index of which field each position is in
+  private static class FieldScreen
+  {
+    private final List<FieldRange> fields = new ArrayList<> ();
+    private final int[] fieldIndex;
+    private final int size;
+
+    FieldScreen (HeadlessScreen screen, int size)
+    {
+      this.size = size;
+      for (int i = 0; i < screen.getFieldCount (); i++)
+        fields.add (new FieldRange (screen.getFieldStart (i), screen.getFieldEnd (i)));
+
+      fieldIndex = new int[size];
+      for (int i = 0; i < size; i++)
+        fieldIndex[i] = screen.getFieldAt (i);
+    }
+  }
+
+  // the same test as Field.contains()
+  private static class FieldRange
+  {
+    private final int start;
+    private final int end;
+
+    FieldRange (int start, int end)
+    {
+      this.start = start;
+      this.end = end;
+    }
+
+    boolean contains (int position)
+    {
+      if (start <= end)
+        return position >= start && position <= end;
+      return position >= start || position <= end;
+    }
+  }
+
+  // receives the records while listen() is being measured
+  private class Sink implements TelnetCommandProcessor
+  {
+    @Override
+    public void processRecord (byte[] data, int dataPtr)
+    {
+      sink += dataPtr;
+    }
+
+    @Override
+    public void processData (byte[] data, int length)
+    {
+      sink += length;
+    }
+
+    @Override
+    public void processTelnetCommand (byte[] data, int dataPtr)
+    {
+      sink += dataPtr;
+    }
+
+    @Override
+    public void processTelnetSubcommand (byte[] data, int dataPtr)
+    {
+      sink += dataPtr;
+    }
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    ParserBenchmark benchmark = new ParserBenchmark ();
+    for (String arg : args)
+      benchmark.setOption (arg);
+    benchmark.run ();
+  }
+}
@@ -0,0 +1,363 @@
+package com.bytezone.dm3270.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.bytezone.dm3270.session.SessionReader;
+import com.bytezone.dm3270.streams.TelnetSocket.Source;
+import com.bytezone.dm3270.telnet.TelnetCommandProcessor;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+
+// Compares TelnetProcessor with the byte-at-a-time loop that it replaced. The server
+// side of each recorded spy session is joined back into a single stream and fed to
+// both processors in socket-sized chunks, and both must report exactly the same
+// records. With no files it uses a generated stream of screen-sized records. Finally
+// a record bigger than the old fixed buffer is sent to each of them.
+//
+// usage: TelnetProcessorBenchmark [-chunk=4096] [-seconds=3] [spy file ...]
+
+public class TelnetProcessorBenchmark
+{
+  private static final int OLD_BUFFER_SIZE = 16500;
+
+  private int chunkSize = 4096;
+  private int seconds = 3;
+  private final List<Path> files = new ArrayList<> ();
+
+  private void setOption (String arg)
+  {
+    String option = arg.toLowerCase ();
+    String value = arg.substring (arg.indexOf ('=') + 1);
+
+    if (option.startsWith ("-chunk="))
+      chunkSize = Integer.parseInt (value);
+    else if (option.startsWith ("-seconds="))
+      seconds = Integer.parseInt (value);
+    else if (option.startsWith ("-"))
+      throw new IllegalArgumentException ("Unknown option: " + arg);
+    else
+      files.add (Paths.get (arg));
+  }
+
+  private void run () throws Exception
+  {
+    if (files.isEmpty ())
+      compare ("generated", generate (2000, new Random (3270)));
+    else
+      for (Path file : files)
+        compare (file.getFileName ().toString (), read (file));
+
+    System.out.println ();
+    byte[] large = generateRecord (OLD_BUFFER_SIZE * 3, new Random (3278));
+    System.out.printf ("Record of %,d bytes:%n", large.length);
+    System.out.printf ("  %-14s %s%n", "per byte", tryLarge (large, false));
+    System.out.printf ("  %-14s %s%n", "bulk scan", tryLarge (large, true));
+  }
+
+  private void compare (String name, byte[] stream)
+  {
+    System.out.printf ("%s: %,d bytes in %,d byte chunks%n", name, stream.length,
+                       chunkSize);
+
+    Result after = measure (stream, true);
+    Result before;
+    try
+    {
+      before = measure (stream, false);
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      System.out.printf ("  %-14s overflowed its buffer%n", "per byte");
+      System.out.printf ("  %-14s %,10.0f records/s  %,8.1f MB/s%n", "bulk scan",
+                         after.recordsPerSecond (), after.megabytesPerSecond ());
+      return;
+    }
+
+    if (before.checksum != after.checksum || before.records != after.records)
+      throw new IllegalStateException ("Processors disagree on " + name);
+
+    System.out.printf ("  %-14s %,10.0f records/s  %,8.1f MB/s%n", "per byte",
+                       before.recordsPerSecond (), before.megabytesPerSecond ());
+    System.out.printf ("  %-14s %,10.0f records/s  %,8.1f MB/s  (x %.2f)%n",
+                       "bulk scan", after.recordsPerSecond (),
+                       after.megabytesPerSecond (),
+                       after.megabytesPerSecond () / before.megabytesPerSecond ());
+  }
+
+  // run one warm-up second, then as many passes as fit in the time allowed
+  private Result measure (byte[] stream, boolean bulk)
+  {
+    Counter counter = new Counter ();
+    Listener listener = bulk ? new TelnetProcessor (counter)::listen
+        : new ByteAtATimeProcessor (counter)::listen;
+
+    long end = System.nanoTime () + 1_000_000_000L;
+    while (System.nanoTime () < end)
+      feed (stream, listener);
+
+    Result result = new Result ();
+    counter.records = 0;
+    counter.checksum = 0;
+
+    long start = System.nanoTime ();
+    end = start + seconds * 1_000_000_000L;
+    long passes = 0;
+    do
+    {
+      feed (stream, listener);
+      ++passes;
+    } while (System.nanoTime () < end);
+
+    result.nanos = System.nanoTime () - start;
+    result.bytes = passes * stream.length;
+    result.records = counter.records / passes;
+    result.totalRecords = counter.records;
+    result.checksum = counter.checksum / passes;
+    return result;
+  }
+
+  private void feed (byte[] stream, Listener listener)
+  {
+    for (int ptr = 0; ptr < stream.length; ptr += chunkSize)
+      listener.listen (stream, ptr, Math.min (chunkSize, stream.length - ptr));
+  }
+
+  private String tryLarge (byte[] record, boolean bulk)
+  {
+    Counter counter = new Counter ();
+    try
+    {
+      if (bulk)
+        new TelnetProcessor (counter).listen (record, 0, record.length);
+      else
+        new ByteAtATimeProcessor (counter).listen (record, 0, record.length);
+      return String.format ("%d record", counter.records);
+    }
+    catch (ArrayIndexOutOfBoundsException e)
+    {
+      return "overflowed its buffer";
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Test data
+  // ---------------------------------------------------------------------------------//
+
+  // the server's records in the order they were recorded, with their IAC EORs
+  private byte[] read (Path file) throws Exception
+  {
+    SessionReader server = new SessionReader (Source.SERVER, file);
+    ByteArrayOutputStream stream = new ByteArrayOutputStream ();
+
+    int bytesRead;
+    while ((bytesRead = server.next ()) > 0)
+      stream.write (server.buffer, 0, bytesRead);
+
+    return stream.toByteArray ();
+  }
+
+  private byte[] generate (int records, Random random)
+  {
+    ByteArrayOutputStream stream = new ByteArrayOutputStream ();
+    for (int i = 0; i < records; i++)
+    {
+      byte[] record = generateRecord (500 + random.nextInt (3000), random);
+      stream.write (record, 0, record.length);
+    }
+    return stream.toByteArray ();
+  }
+
+  // an Erase Write followed by EBCDIC text with the occasional (doubled) 0xFF
+  private byte[] generateRecord (int size, Random random)
+  {
+    ByteArrayOutputStream record = new ByteArrayOutputStream (size + 20);
+    record.write (0xF5);
+    record.write (0xC3);
+
+    for (int i = 0; i < size; i++)
+      if (random.nextInt (500) == 0)
+      {
+        record.write (0xFF);
+        record.write (0xFF);
+      }
+      else
+        record.write (0x40 + random.nextInt (0xBF));
+
+    record.write (0xFF);
+    record.write (0xEF);
+    return record.toByteArray ();
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Support classes
+  // ---------------------------------------------------------------------------------//
+
+  private interface Listener
+  {
+    void listen (byte[] buffer, int offset, int length);
+  }
+
+  private static class Result
+  {
+    long nanos;
+    long bytes;
+    long records;                   // per pass
+    long totalRecords;
+    long checksum;                  // per pass
+
+    double recordsPerSecond ()
+    {
+      return totalRecords * 1e9 / nanos;
+    }
+
+    double megabytesPerSecond ()
+    {
+      return bytes * 1e9 / nanos / (1024 * 1024);
+    }
+  }
+
+  private static class Counter implements TelnetCommandProcessor
+  {
+    long records;
+    long checksum;
+
+    @Override
+    public void processRecord (byte[] data, int dataPtr)
+    {
+      ++records;
+      checksum += dataPtr + (data[0] & 0xFF) + (data[dataPtr / 2] & 0xFF)
+          + (data[dataPtr - 3] & 0xFF);
+    }
+
+    @Override
+    public void processData (byte[] data, int length)
+    {
+      checksum += length;
+    }
+
+    @Override
+    public void processTelnetCommand (byte[] data, int dataPtr)
+    {
+      checksum += dataPtr;
+    }
+
+    @Override
+    public void processTelnetSubcommand (byte[] data, int dataPtr)
+    {
+      checksum += dataPtr;
+    }
+  }
+
+  // TelnetProcessor.listen() as it was, one byte at a time into a fixed buffer
+  private static class ByteAtATimeProcessor
+  {
+    private final byte[] data = new byte[OLD_BUFFER_SIZE];
+    private int dataPtr;
+    private boolean pending;
+    private boolean weirdData;
+    private byte command;
+
+    private final TelnetCommandProcessor commandProcessor;
+
+    ByteAtATimeProcessor (TelnetCommandProcessor commandProcessor)
+    {
+      this.commandProcessor = commandProcessor;
+    }
+
+    void listen (byte[] buffer, int offset, int length)
+    {
+      int max = offset + length;
+      for (int ptr = offset; ptr < max; ptr++)
+      {
+        byte thisByte = buffer[ptr];
+        data[dataPtr++] = thisByte;
+
+        if (thisByte == TelnetProcessor.IAC)
+        {
+          if (pending)
+          {
+            pending = false;
+            --dataPtr;
+            if (dataPtr == 1)
+              weirdData = true;
+          }
+          else
+            pending = true;
+          continue;
+        }
+
+        if (pending)
+        {
+          pending = false;
+
+          if (thisByte == TelnetProcessor.EOR)
+          {
+            commandProcessor.processRecord (data, dataPtr);
+            reset ();
+            continue;
+          }
+
+          if (data[0] != TelnetProcessor.IAC || weirdData)
+          {
+            dataPtr -= 2;
+            commandProcessor.processData (data, dataPtr);
+            reset ();
+
+            data[dataPtr++] = TelnetProcessor.IAC;
+            data[dataPtr++] = thisByte;
+          }
+
+          if (thisByte == TelnetProcessor.SB)
+            continue;
+
+          if (thisByte == TelnetProcessor.SE)
+          {
+            commandProcessor.processTelnetSubcommand (data, dataPtr);
+            reset ();
+            continue;
+          }
+
+          if (thisByte == TelnetProcessor.DO || thisByte == TelnetProcessor.DONT
+              || thisByte == TelnetProcessor.WILL || thisByte == TelnetProcessor.WONT)
+          {
+            command = thisByte;
+            continue;
+          }
+
+          if (thisByte == TelnetProcessor.NOP || thisByte == TelnetProcessor.IP)
+          {
+            commandProcessor.processTelnetCommand (data, dataPtr);
+            reset ();
+            continue;
+          }
+
+          System.err.printf ("Unknown command: %02X%n", thisByte);
+        }
+        else if (command != 0)
+        {
+          commandProcessor.processTelnetCommand (data, dataPtr);
+          reset ();
+        }
+      }
+    }
+
+    private void reset ()
+    {
+      dataPtr = 0;
+      command = 0;
+      weirdData = false;
+    }
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    TelnetProcessorBenchmark benchmark = new TelnetProcessorBenchmark ();
+    for (String arg : args)
+      benchmark.setOption (arg);
+    benchmark.run ();
+  }
+}
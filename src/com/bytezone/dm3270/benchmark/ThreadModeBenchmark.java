@@ -0,0 +1,249 @@
+package com.bytezone.dm3270.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.bytezone.dm3270.streams.BufferListener;
+import com.bytezone.dm3270.streams.TelnetSocket.Source;
+import com.bytezone.dm3270.streams.TerminalServer;
+import com.bytezone.dm3270.streams.ThreadManager;
+import com.bytezone.dm3270.streams.ThreadManager.Mode;
+
+// Session-count scaling test for the blocking TerminalServer read loop, run once on
+// platform threads and once on virtual threads. A single-threaded NIO echo host
+// accepts every session, so the host side does not add threads of its own. For each
+// session count it reports the time to connect every session, the time for every
+// session to complete a round trip, and the threads and heap in use.
+//
+// usage: ThreadModeBenchmark [sessions ...]      default 100 250 500 1000
+
+public class ThreadModeBenchmark
+{
+  private static final byte[] noOp = { (byte) 0xFF, (byte) 0xF1 };
+  private static final int ROUNDS = 20;
+  private static final long TIMEOUT = 60_000;
+
+  private final EchoHost host;
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean ();
+
+  public ThreadModeBenchmark () throws IOException
+  {
+    host = new EchoHost ();
+    Thread hostThread = new Thread (host, "EchoHost");
+    hostThread.setDaemon (true);
+    hostThread.start ();
+  }
+
+  private void run (Mode mode, int totalSessions) throws InterruptedException
+  {
+    CountingListener listener = new CountingListener ();
+    List<TerminalServer> servers = new ArrayList<> (totalSessions);
+    List<Thread> threads = new ArrayList<> (totalSessions);
+
+    int acceptedBefore = host.accepted.get ();
+    long start = System.nanoTime ();
+
+    for (int i = 0; i < totalSessions; i++)
+    {
+      TerminalServer server = new TerminalServer ("localhost", host.port, listener);
+      Thread thread = ThreadManager.newThread (mode, server, "Session-" + i);
+      servers.add (server);
+      threads.add (thread);
+      thread.start ();
+    }
+
+    boolean connected =
+        waitFor ( () -> host.accepted.get () - acceptedBefore >= totalSessions);
+    long connectTime = System.nanoTime () - start;
+
+    // give the read loops time to reach their first read() before writing
+    Thread.sleep (200);
+
+    long roundTripTime = 0;
+    int rounds = 0;
+    if (connected)
+      for (; rounds < ROUNDS; rounds++)
+      {
+        long expected = listener.bytesRead.get () + (long) totalSessions * noOp.length;
+        long roundStart = System.nanoTime ();
+        for (TerminalServer server : servers)
+          server.write (noOp);
+        if (!waitFor ( () -> listener.bytesRead.get () >= expected))
+          break;
+        roundTripTime += System.nanoTime () - roundStart;
+      }
+
+    int liveThreads = threadBean.getThreadCount ();
+    Runtime runtime = Runtime.getRuntime ();
+    long heapUsed = (runtime.totalMemory () - runtime.freeMemory ()) / 1024 / 1024;
+
+    for (TerminalServer server : servers)
+      server.close ();
+    for (Thread thread : threads)
+      thread.join (1000);
+
+    System.out.printf ("%-8s %,8d %s %,10.1f %,12.3f %,9d %,8d%n", mode, totalSessions,
+                       connected ? " " : "*", connectTime / 1e6,
+                       rounds == 0 ? 0.0 : roundTripTime / 1e6 / rounds, liveThreads,
+                       heapUsed);
+  }
+
+  private boolean waitFor (Condition condition) throws InterruptedException
+  {
+    long limit = System.currentTimeMillis () + TIMEOUT;
+    while (!condition.isTrue ())
+    {
+      if (System.currentTimeMillis () > limit)
+        return false;
+      Thread.sleep (1);
+    }
+    return true;
+  }
+
+  private interface Condition
+  {
+    boolean isTrue ();
+  }
+
+  public static void main (String[] args) throws Exception
+  {
+    int[] sessionCounts = { 100, 250, 500, 1000 };
+    if (args.length > 0)
+    {
+      sessionCounts = new int[args.length];
+      for (int i = 0; i < args.length; i++)
+        sessionCounts[i] = Integer.parseInt (args[i]);
+    }
+
+    if (!ThreadManager.virtualThreadsAvailable ())
+      System.out.println ("Virtual threads need Java 21 - VIRTUAL will use platform"
+          + " threads");
+
+    ThreadModeBenchmark benchmark = new ThreadModeBenchmark ();
+
+    System.out.println ("Mode     Sessions    Connect ms  Round trip ms   Threads  Heap MB");
+    System.out.println ("-------- --------   ----------  -------------   -------  -------");
+
+    for (int sessions : sessionCounts)
+      for (Mode mode : Mode.values ())
+      {
+        benchmark.run (mode, sessions);
+        System.gc ();
+        Thread.sleep (500);
+      }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Counts everything that the sessions receive
+  // ---------------------------------------------------------------------------------//
+
+  private static class CountingListener implements BufferListener
+  {
+    private final AtomicLong bytesRead = new AtomicLong ();
+
+    @Override
+    public void listen (Source targetRole, byte[] message, LocalDateTime dateTime,
+        boolean genuine)
+    {
+      bytesRead.addAndGet (message.length);
+    }
+
+    @Override
+    public void close ()
+    {
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Single-threaded host that echoes every buffer back to its session
+  // ---------------------------------------------------------------------------------//
+
+  private static class EchoHost implements Runnable
+  {
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ByteBuffer buffer = ByteBuffer.allocate (4096);
+    private final AtomicInteger accepted = new AtomicInteger ();
+    private final int port;
+
+    EchoHost () throws IOException
+    {
+      selector = Selector.open ();
+      serverChannel = ServerSocketChannel.open ();
+      serverChannel.bind (new InetSocketAddress ("localhost", 0), 4096);
+      serverChannel.configureBlocking (false);
+      serverChannel.register (selector, SelectionKey.OP_ACCEPT);
+      port = ((InetSocketAddress) serverChannel.getLocalAddress ()).getPort ();
+    }
+
+    @Override
+    public void run ()
+    {
+      try
+      {
+        while (true)
+        {
+          selector.select ();
+          Iterator<SelectionKey> iterator = selector.selectedKeys ().iterator ();
+          while (iterator.hasNext ())
+          {
+            SelectionKey key = iterator.next ();
+            iterator.remove ();
+
+            if (key.isAcceptable ())
+            {
+              SocketChannel channel;
+              while ((channel = serverChannel.accept ()) != null)
+              {
+                channel.configureBlocking (false);
+                channel.register (selector, SelectionKey.OP_READ);
+                accepted.incrementAndGet ();
+              }
+            }
+            else if (key.isReadable ())
+              echo (key);
+          }
+        }
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace ();
+      }
+    }
+
+    private void echo (SelectionKey key)
+    {
+      SocketChannel channel = (SocketChannel) key.channel ();
+      try
+      {
+        buffer.clear ();
+        if (channel.read (buffer) < 0)
+        {
+          key.cancel ();
+          channel.close ();
+          return;
+        }
+        buffer.flip ();
+        while (buffer.hasRemaining ())
+          channel.write (buffer);
+      }
+      catch (IOException e)
+      {
+        key.cancel ();
+      }
+    }
+  }
+}
@@ -1,9 +1,20 @@
 package com.bytezone.dm3270.buffers;
 
+import java.util.Arrays;
+
 public abstract class AbstractBuffer implements Buffer
 {
+  // A buffer either owns a copy of its bytes, or is a read-only view of them inside
+  // the record of the buffer that contains it (a WriteCommand inside an Outbound3270DS
+  // inside a WriteStructuredFieldCommand), so a record is copied once however deeply
+  // it is nested. A view only creates its data array if somebody asks for it.
   protected byte[] data;
 
+  // where the bytes are - for an owned buffer this is data, offset 0
+  protected byte[] record;
+  protected int recordOffset;
+  private int length;
+
   public AbstractBuffer ()
   {
     data = new byte[0];
@@ -16,25 +27,44 @@ public abstract class AbstractBuffer implements Buffer
 
   public AbstractBuffer (byte[] buffer, int offset, int length)
   {
-    data = new byte[length];
-    System.arraycopy (buffer, offset, data, 0, length);
+    this (buffer, offset, length, false);
+  }
+
+  // The buffer must not change while this object is alive, so a view may only be made
+  // of a record that an enclosing buffer owns - never of a reusable input buffer.
+  protected AbstractBuffer (byte[] buffer, int offset, int length, boolean view)
+  {
+    if (view)
+    {
+      record = buffer;
+      recordOffset = offset;
+    }
+    else
+    {
+      data = Arrays.copyOfRange (buffer, offset, offset + length);
+      record = data;
+    }
+    this.length = length;
   }
 
   @Override
   public byte[] getData ()
   {
+    if (data == null)
+      data = Arrays.copyOfRange (record, recordOffset, recordOffset + length);
     return data;
   }
 
   @Override
   public int size ()
   {
-    return data.length;
+    return data == null ? length : data.length;
   }
 
   @Override
   public byte[] getTelnetData ()
   {
+    byte[] data = getData ();
     int length = data.length + countFF (data) + 2; // allow for expanded 0xFF and IAC/EOR
     byte[] buffer = new byte[length];
     copyAndExpand (data, buffer, 0);
@@ -62,4 +92,4 @@ public abstract class AbstractBuffer implements Buffer
     }
     return ptr;
   }
-}
\ No newline at end of file
+}
@@ -87,8 +87,14 @@ public abstract class Command extends AbstractTN3270Command
    */
 
   // called by TelnetListener.processRecord()
-  // called by Outbound3270DS constructor
   public static Command getCommand (byte[] buffer, int offset, int length)
+  {
+    return getCommand (buffer, offset, length, false);
+  }
+
+  // called by Outbound3270DS and ReadPartitionSF constructors with a view of their
+  // enclosing WriteStructuredFieldCommand's record
+  public static Command getCommand (byte[] buffer, int offset, int length, boolean view)
   {
     switch (buffer[offset])
     {
@@ -98,11 +104,11 @@ public abstract class Command extends AbstractTN3270Command
       case Command.ERASE_WRITE_05:
       case Command.ERASE_WRITE_ALTERNATE_7E:
       case Command.ERASE_WRITE_ALTERNATE_0D:
-        return new WriteCommand (buffer, offset, length);
+        return new WriteCommand (buffer, offset, length, view);
 
       case Command.ERASE_ALL_UNPROTECTED_6F:
       case Command.ERASE_ALL_UNPROTECTED_0F:
-        return new EraseAllUnprotectedCommand (buffer, offset, length);
+        return new EraseAllUnprotectedCommand (buffer, offset, length, view);
 
       case Command.READ_BUFFER_F2:
       case Command.READ_BUFFER_02:
@@ -110,11 +116,11 @@ public abstract class Command extends AbstractTN3270Command
       case Command.READ_MODIFIED_06:
       case Command.READ_MODIFIED_ALL_6E:
       case Command.READ_MODIFIED_ALL_0E:
-        return new ReadCommand (buffer, offset, length);
+        return new ReadCommand (buffer, offset, length, view);
 
       case Command.WRITE_STRUCTURED_FIELD_F3:
       case Command.WRITE_STRUCTURED_FIELD_11:
-        return new WriteStructuredFieldCommand (buffer, offset, length);
+        return new WriteStructuredFieldCommand (buffer, offset, length, view);
 
       default:
         System.out
@@ -145,6 +151,11 @@ public abstract class Command extends AbstractTN3270Command
     super (buffer, offset, length);
   }
 
+  protected Command (byte[] buffer, int offset, int length, boolean view)
+  {
+    super (buffer, offset, length, view);
+  }
+
   public Command ()
   {
     super ();
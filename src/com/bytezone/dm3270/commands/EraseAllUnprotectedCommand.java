@@ -7,7 +7,13 @@ public class EraseAllUnprotectedCommand extends Command
   // This command has no WCC or data.
   public EraseAllUnprotectedCommand (byte[] buffer, int offset, int length)
   {
-    super (buffer, offset, length);
+    this (buffer, offset, length, false);
+  }
+
+  // called from Command.getCommand()
+  EraseAllUnprotectedCommand (byte[] buffer, int offset, int length, boolean view)
+  {
+    super (buffer, offset, length, view);
     assert buffer[offset] == Command.ERASE_ALL_UNPROTECTED_0F
         || buffer[offset] == Command.ERASE_ALL_UNPROTECTED_6F;
   }
@@ -14,10 +14,15 @@ public class ReadCommand extends Command
     READ_BUFFER, READ_MODIFIED, READ_MODIFIED_ALL
   }
 
-  // Called from the static Command.getCommand()
   public ReadCommand (byte[] buffer, int offset, int length)
   {
-    super (buffer, offset, length);
+    this (buffer, offset, length, false);
+  }
+
+  // Called from the static Command.getCommand()
+  ReadCommand (byte[] buffer, int offset, int length, boolean view)
+  {
+    super (buffer, offset, length, view);
 
     assert buffer[offset] == Command.READ_BUFFER_02
         || buffer[offset] == Command.READ_BUFFER_F2
@@ -26,7 +31,7 @@ public class ReadCommand extends Command
         || buffer[offset] == Command.READ_MODIFIED_ALL_0E
         || buffer[offset] == Command.READ_MODIFIED_ALL_6E;
 
-    switch (data[0])
+    switch (buffer[offset])
     {
       case READ_BUFFER_F2:
       case READ_BUFFER_02:
@@ -58,6 +63,17 @@ public class ReadCommand extends Command
     return name;
   }
 
+  // used by LoadSession, which replies without a Screen
+  public boolean isReadBuffer ()
+  {
+    return type == CommandType.READ_BUFFER;
+  }
+
+  public boolean isReadModifiedAll ()
+  {
+    return type == CommandType.READ_MODIFIED_ALL;
+  }
+
   @Override
   public void process (Screen screen)
   {
@@ -69,7 +85,7 @@ public class ReadCommand extends Command
     else if (type == CommandType.READ_MODIFIED_ALL)
       setReply (screen.readModifiedFields (READ_MODIFIED_ALL_6E));
     else
-      System.out.printf ("Unknown READ command: %02X%n", data[0]);
+      System.out.printf ("Unknown READ command: %02X%n", record[recordOffset]);
   }
 
   @Override
@@ -9,8 +9,7 @@ import com.bytezone.dm3270.console.ConsoleLog;
 import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.display.ScreenDimensions;
 import com.bytezone.dm3270.orders.Order;
-import com.bytezone.dm3270.orders.TextOrder;
-import com.bytezone.dm3270.utilities.Dm3270Utility;
+import com.bytezone.dm3270.orders.OrderStream;
 
 import javafx.application.Platform;
 import javafx.scene.control.MenuItem;
@@ -113,7 +112,7 @@ public class SystemMessage
     return consoleLog;
   }
 
-  void checkSystemMessage (boolean eraseWrite, List<Order> orders, int length)
+  void checkSystemMessage (boolean eraseWrite, OrderStream orders, int length)
   {
     if (orders.size () == 0)
     {
@@ -149,27 +148,26 @@ public class SystemMessage
       {
         case 8:
           if (checkOrders (systemMessage3, orders))
-            checkSystemMessage (Dm3270Utility.getString (orders.get (4).getBuffer ()));
+            checkSystemMessage (orders.getText (4));
           return;
 
         case 11:
           if (checkOrders (systemMessage2, orders))
-            checkSystemMessage (Dm3270Utility.getString (orders.get (4).getBuffer ()));
+            checkSystemMessage (orders.getText (4));
           return;
 
         case 15:
           if (checkOrders (systemMessage4, orders))
           {
-            checkSystemMessage (Dm3270Utility.getString (orders.get (4).getBuffer ()));
-            checkSystemMessage (Dm3270Utility.getString (orders.get (8).getBuffer ()));
+            checkSystemMessage (orders.getText (4));
+            checkSystemMessage (orders.getText (8));
           }
           return;
 
         case 17:
           if (checkOrders (profileMessage, orders))
-            checkProfileMessage (Dm3270Utility.getString (orders.get (4).getBuffer ())
-                + Dm3270Utility.getString (orders.get (6).getBuffer ()),
-                                 Dm3270Utility.getString (orders.get (10).getBuffer ()));
+            checkProfileMessage (orders.getText (4) + orders.getText (6),
+                                 orders.getText (10));
           return;
       }
     }
@@ -184,12 +182,12 @@ public class SystemMessage
 
         case 6:
           if (checkOrders (systemMessage1, orders))
-            checkSystemMessage (Dm3270Utility.getString (orders.get (2).getBuffer ()));
+            checkSystemMessage (orders.getText (2));
           return;
 
         case 9:
           if (checkOrders (systemMessage5, orders))
-            checkSystemMessage (Dm3270Utility.getString (orders.get (2).getBuffer ()));
+            checkSystemMessage (orders.getText (2));
           return;
       }
     }
@@ -204,13 +202,12 @@ public class SystemMessage
     System.out.println ("-------------------------------");
   }
 
-  private boolean checkOrders (byte[] systemMessage, List<Order> orders)
+  private boolean checkOrders (byte[] systemMessage, OrderStream orders)
   {
-    int ptr = 0;
-    for (Order order : orders)
+    for (int i = 0; i < orders.size (); i++)
     {
-      byte reqType = systemMessage[ptr++];
-      if (reqType != 0 && reqType != order.getType ())
+      byte reqType = systemMessage[i];
+      if (reqType != 0 && reqType != orders.getType (i))
         return false;
     }
     return true;
@@ -283,9 +280,9 @@ public class SystemMessage
     }
   }
 
-  private void checkConsoleOutput (List<Order> orders)
+  private void checkConsoleOutput (OrderStream orders)
   {
-    String message = Dm3270Utility.getString (orders.get (2).getBuffer ());
+    String message = orders.getText (2);
     if (message.length () == 1600 && message.startsWith ("  IEA371I "))
     {
       int pos = message.indexOf (" SELECTED FOR IPL ");
@@ -306,9 +303,9 @@ public class SystemMessage
     }
   }
 
-  private void addConsoleMessage (List<Order> orders)
+  private void addConsoleMessage (OrderStream orders)
   {
-    addConsoleMessage (Dm3270Utility.getString (orders.get (2).getBuffer ()));
+    addConsoleMessage (orders.getText (2));
   }
 
   private void addConsoleMessage (String message)
@@ -339,7 +336,7 @@ public class SystemMessage
     previousMessage = message;
   }
 
-  private void addConsole2Message (List<Order> orders)
+  private void addConsole2Message (OrderStream orders)
   {
     // collect screen lines into screenWidth strings
     int skipLines = -1;
@@ -347,10 +344,10 @@ public class SystemMessage
     if (screenWidth != 80)
       System.out.println ("fix this");
 
-    for (Order order : orders)
-      if (order.isText ())
+    for (int i = 0; i < orders.size (); i++)
+      if (orders.isText (i))
       {
-        String line = ((TextOrder) order).getTextString ();
+        String line = orders.getText (i);
         if (line.length () == 79 || line.length () == 75)
         {
           String prefix = line.substring (1, 3);
@@ -3,10 +3,12 @@ package com.bytezone.dm3270.commands;
 import java.util.ArrayList;
 import java.util.List;
 
+import com.bytezone.dm3270.application.Console.Function;
 import com.bytezone.dm3270.display.Cursor;
 import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.display.Screen.ScreenOption;
 import com.bytezone.dm3270.orders.Order;
+import com.bytezone.dm3270.orders.OrderStream;
 import com.bytezone.dm3270.orders.TextOrder;
 
 public class WriteCommand extends Command
@@ -14,13 +16,22 @@ public class WriteCommand extends Command
   private final boolean eraseWrite;
   private final boolean alternate;
   private final WriteControlCharacter writeControlCharacter;
-  private final List<Order> orders = new ArrayList<Order> ();
+  private final OrderStream orderStream;
+  private List<Order> orders;                   // created when first asked for
 
   private SystemMessage systemMessage;
 
   public WriteCommand (byte[] buffer, int offset, int length)
   {
-    super (buffer, offset, length);
+    this (buffer, offset, length, false);
+  }
+
+  // Called from the static Command.getCommand(). The orders are decoded from the
+  // record that this command owns or is a view of, so the TextOrders don't need copies.
+  // No Order objects are created until getOrdersList() is called.
+  WriteCommand (byte[] buffer, int offset, int length, boolean view)
+  {
+    super (buffer, offset, length, view);
 
     assert buffer[offset] == Command.WRITE_01 || buffer[offset] == Command.WRITE_F1
         || buffer[offset] == Command.ERASE_WRITE_05
@@ -34,27 +45,7 @@ public class WriteCommand extends Command
     writeControlCharacter =
         length > 1 ? new WriteControlCharacter (buffer[offset + 1]) : null;
 
-    int ptr = offset + 2;
-    Order previousOrder = null;
-
-    int max = offset + length;
-    while (ptr < max)
-    {
-      Order order = Order.getOrder (buffer, ptr, max);
-
-      if (order.rejected ())
-        break;
-
-      if (order.matchesPreviousOrder (previousOrder))
-        previousOrder.incrementDuplicates ();           // and discard this Order
-      else
-      {
-        orders.add (order);
-        previousOrder = order;
-      }
-
-      ptr += order.size ();
-    }
+    orderStream = new OrderStream (record, recordOffset + 2, recordOffset + length);
   }
 
   // Used by MainframeStage.createCommand() when building a screen
@@ -64,7 +55,7 @@ public class WriteCommand extends Command
     this.writeControlCharacter = wcc;
     this.eraseWrite = erase;
     this.alternate = alternate;
-    this.orders.addAll (orders);
+    this.orders = new ArrayList<> (orders);
 
     // create new data buffer
     int length = 2;                 // command + WCC
@@ -84,6 +75,7 @@ public class WriteCommand extends Command
       ptr = order.pack (data, ptr);
 
     assert ptr == data.length;
+    orderStream = new OrderStream (data, 2, data.length);
   }
 
   @Override
@@ -103,10 +95,14 @@ public class WriteCommand extends Command
     else
       screen.lockKeyboard ("Write");
 
-    if (orders.size () > 0)
+    if (orderStream.size () > 0)
     {
-      for (Order order : orders)
-        order.process (screen);         // modifies pen
+      // the spy and replay windows show the orders, so they need the Order objects
+      if (screen.getFunction () == Function.TERMINAL)
+        orderStream.process (screen);   // modifies pen
+      else
+        for (Order order : getOrdersList ())
+          order.process (screen);       // modifies pen
 
       cursor.moveTo (cursorLocation);
       screen.buildFields (writeControlCharacter);
@@ -122,7 +118,7 @@ public class WriteCommand extends Command
 
     if (!screen.isKeyboardLocked () && screen.getFieldManager ().size () > 0)
     {
-      if (orders.size () > 0 || !writeControlCharacter.isResetModified ())
+      if (orderStream.size () > 0 || !writeControlCharacter.isResetModified ())
         // should check for suppressDisplay
         setReply (screen.getPluginsStage ().processPluginAuto ());
     }
@@ -130,14 +126,38 @@ public class WriteCommand extends Command
     if (screenDrawRequired)
       screen.draw ();
 
-    // check screen for jobs submitted or finished
+    // check screen for jobs submitted or finished - it updates the console log, so it
+    // runs on the FX thread (the orders never change once they have been decoded)
     systemMessage = screen.getSystemMessage ();
-    systemMessage.checkSystemMessage (eraseWrite, orders, data.length);
+    int length = size ();
+    Screen.runOnFxThread (
+        () -> systemMessage.checkSystemMessage (eraseWrite, orderStream, length));
+  }
+
+  // Used by HeadlessScreen.write() when running without a Screen
+  public boolean isEraseWrite ()
+  {
+    return eraseWrite;
+  }
+
+  // Used by HeadlessScreen.write() when running without a Screen
+  public WriteControlCharacter getWriteControlCharacter ()
+  {
+    return writeControlCharacter;
+  }
+
+  // Used by HeadlessScreen.write() when running without a Screen
+  public OrderStream getOrderStream ()
+  {
+    return orderStream;
   }
 
-  // Used by Session.checkServerName() when searching for the server's name
+  // Used by Session.checkServerName() when searching for the server's name, and to
+  // show the command in the spy and replay windows
   public List<Order> getOrdersList ()
   {
+    if (orders == null)
+      orders = orderStream.getOrders ();
     return orders;
   }
 
@@ -150,6 +170,7 @@ public class WriteCommand extends Command
   @Override
   public String toString ()
   {
+    List<Order> orders = getOrdersList ();
     StringBuilder text = new StringBuilder ();
     text.append (getName ());
     text.append ("\nWCC : " + writeControlCharacter);
@@ -26,11 +26,16 @@ public class WriteControlCharacter
     return value;
   }
 
-  boolean isResetModified ()
+  public boolean isResetModified ()
   {
     return resetModified;
   }
 
+  public boolean isRestoreKeyboard ()
+  {
+    return restoreKeyboard;
+  }
+
   void process (Screen screen)
   {
     screen.resetInsertMode ();
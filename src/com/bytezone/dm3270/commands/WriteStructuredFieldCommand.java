@@ -27,55 +27,62 @@ public class WriteStructuredFieldCommand extends Command
 
   public WriteStructuredFieldCommand (byte[] buffer, int offset, int length)
   {
-    super (buffer, offset, length);
+    this (buffer, offset, length, false);
+  }
+
+  // Called from the static Command.getCommand(). Each structured field is a view of
+  // this command's record, so the whole record is copied (at most) once.
+  WriteStructuredFieldCommand (byte[] buffer, int offset, int length, boolean view)
+  {
+    super (buffer, offset, length, view);
 
     assert buffer[offset] == Command.WRITE_STRUCTURED_FIELD_11
         || buffer[offset] == Command.WRITE_STRUCTURED_FIELD_F3;
 
-    int ptr = offset + 1;
-    int max = offset + length;
+    int ptr = recordOffset + 1;
+    int max = recordOffset + length;
 
     while (ptr < max)
     {
-      int size = Dm3270Utility.unsignedShort (buffer, ptr) - 2;
+      int size = Dm3270Utility.unsignedShort (record, ptr) - 2;
       ptr += 2;
 
-      switch (buffer[ptr])
+      switch (record[ptr])
       {
         // wrapper for original write commands - W. EW, EWA, EAU
         case StructuredField.OUTBOUND_3270DS:
-          structuredFields.add (new Outbound3270DS (buffer, ptr, size));
+          structuredFields.add (new Outbound3270DS (record, ptr, size));
           break;
 
         // wrapper for original read commands - RB, RM, RMA
         case StructuredField.READ_PARTITION:
-          structuredFields.add (new ReadPartitionSF (buffer, ptr, size));
+          structuredFields.add (new ReadPartitionSF (record, ptr, size));
           break;
 
         case StructuredField.RESET_PARTITION:
           System.out.println ("SF_RESET_PARTITION (00) not written yet");
-          structuredFields.add (new DefaultStructuredField (buffer, ptr, size));
+          structuredFields.add (new DefaultStructuredField (record, ptr, size));
           break;
 
         case StructuredField.SET_REPLY_MODE:
-          structuredFields.add (new SetReplyModeSF (buffer, ptr, size));
+          structuredFields.add (new SetReplyModeSF (record, ptr, size));
           break;
 
         case StructuredField.ACTIVATE_PARTITION:
           System.out.println ("SF_ACTIVATE_PARTITION (0E) not written yet");
-          structuredFields.add (new DefaultStructuredField (buffer, ptr, size));
+          structuredFields.add (new DefaultStructuredField (record, ptr, size));
           break;
 
         case StructuredField.ERASE_RESET:
-          structuredFields.add (new EraseResetSF (buffer, ptr, size));
+          structuredFields.add (new EraseResetSF (record, ptr, size));
           break;
 
         case StructuredField.IND$FILE:
-          structuredFields.add (new FileTransferOutboundSF (buffer, ptr, size));
+          structuredFields.add (new FileTransferOutboundSF (record, ptr, size));
           break;
 
         default:
-          structuredFields.add (new DefaultStructuredField (buffer, ptr, size));
+          structuredFields.add (new DefaultStructuredField (record, ptr, size));
           break;
       }
 
@@ -97,6 +104,12 @@ public class WriteStructuredFieldCommand extends Command
     }
   }
 
+  // used by LoadSession, which processes each structured field without a Screen
+  public List<StructuredField> getStructuredFields ()
+  {
+    return structuredFields;
+  }
+
   @Override
   public Optional<Buffer> getReply ()
   {
@@ -1,21 +1,42 @@
 package com.bytezone.dm3270.display;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import com.bytezone.dm3270.attributes.ColorAttribute;
 
 import javafx.scene.paint.Color;
 
+// Every ScreenContext that has been needed, shared by all screens and sessions. Each
+// one is kept once, under a key packed from its colours, highlight and intensity, so
+// finding a context is a single hash lookup however many there are. Contexts are only
+// ever added, and a context's id is its index in the pool, which is what ScreenBuffer
+// keeps for each position. Fields may be built by several sessions at once (and read
+// by the FX thread), so the pool is safe to use from any thread.
+
 public class ContextManager
 {
-  private static final List<ScreenContext> contextPool = new ArrayList<> ();
+  private static final List<ScreenContext> contextPool = new CopyOnWriteArrayList<> ();
+  private static final Map<Integer, ScreenContext> contextKeys =
+      new ConcurrentHashMap<> ();
+  private static final Map<Color, Integer> colorIds = new ConcurrentHashMap<> ();
+  private static final int MAX_COLOR_ID = 0xFF;         // each id has 8 bits of the key
+
   private FontDetails fontDetails;
 
+  static
+  {
+    // colours are matched by value, so equal colours share one id
+    for (Color color : ColorAttribute.colors)
+      getColorId (color);
+  }
+
   public ContextManager ()
   {
-    addNewContext (ColorAttribute.colors[0], ColorAttribute.colors[8], (byte) 0, false);
+    getScreenContext (ColorAttribute.colors[0], ColorAttribute.colors[8], (byte) 0,
+                      false);
   }
 
   public ScreenContext getDefaultScreenContext ()
@@ -23,6 +44,12 @@ public class ContextManager
     return contextPool.get (0);
   }
 
+  // called from ScreenBuffer, which only keeps each position's context id
+  ScreenContext getScreenContext (int id)
+  {
+    return contextPool.get (id);
+  }
+
   void setFontDetails (FontDetails fontDetails)
   {
     this.fontDetails = fontDetails;
@@ -38,72 +65,81 @@ public class ContextManager
   public ScreenContext getScreenContext (Color foregroundColor, Color backgroundColor,
       byte highlight, boolean highIntensity)
   {
-    Optional<ScreenContext> opt = contextPool.stream ().filter (sc -> sc
-        .matches (foregroundColor, backgroundColor, highlight, highIntensity))
-        .findFirst ();
+    int key = getKey (foregroundColor, backgroundColor, highlight, highIntensity);
+    ScreenContext screenContext = contextKeys.get (key);
 
-    return opt.isPresent () ? opt.get ()
-        : addNewContext (foregroundColor, backgroundColor, highlight, highIntensity);
+    return screenContext != null ? screenContext
+        : addNewContext (key, foregroundColor, backgroundColor, highlight,
+                         highIntensity);
   }
 
   public ScreenContext setForeground (ScreenContext oldContext, Color foregroundColor)
   {
-    Optional<ScreenContext> opt = contextPool.stream ()
-        .filter (sc -> sc.matches (foregroundColor, oldContext.backgroundColor,
-                                   oldContext.highlight, oldContext.highIntensity))
-        .findFirst ();
-
-    return opt.isPresent () ? opt.get ()
-        : addNewContext (foregroundColor, oldContext.backgroundColor,
-                         oldContext.highlight, oldContext.highIntensity);
+    return getScreenContext (foregroundColor, oldContext.backgroundColor,
+                             oldContext.highlight, oldContext.highIntensity);
   }
 
   public ScreenContext setBackground (ScreenContext oldContext, Color backgroundColor)
   {
-    Optional<ScreenContext> opt = contextPool.stream ()
-        .filter (sc -> sc.matches (oldContext.foregroundColor, backgroundColor,
-                                   oldContext.highlight, oldContext.highIntensity))
-        .findFirst ();
-
-    return opt.isPresent () ? opt.get ()
-        : addNewContext (oldContext.foregroundColor, backgroundColor,
-                         oldContext.highlight, oldContext.highIntensity);
+    return getScreenContext (oldContext.foregroundColor, backgroundColor,
+                             oldContext.highlight, oldContext.highIntensity);
   }
 
   public ScreenContext setHighlight (ScreenContext oldContext, byte highlight)
   {
-    Optional<ScreenContext> opt =
-        contextPool.stream ()
-            .filter (sc -> sc.matches (oldContext.foregroundColor,
-                                       oldContext.backgroundColor, highlight,
-                                       oldContext.highIntensity))
-            .findFirst ();
-
-    return opt.isPresent () ? opt.get ()
-        : addNewContext (oldContext.foregroundColor, oldContext.backgroundColor,
-                         highlight, oldContext.highIntensity);
+    return getScreenContext (oldContext.foregroundColor, oldContext.backgroundColor,
+                             highlight, oldContext.highIntensity);
   }
 
   public ScreenContext setHighIntensity (ScreenContext oldContext, boolean highIntensity)
   {
-    Optional<ScreenContext> opt =
-        contextPool.stream ()
-            .filter (sc -> sc.matches (oldContext.foregroundColor,
-                                       oldContext.backgroundColor, oldContext.highlight,
-                                       highIntensity))
-            .findFirst ();
-
-    return opt.isPresent () ? opt.get ()
-        : addNewContext (oldContext.foregroundColor, oldContext.backgroundColor,
-                         oldContext.highlight, highIntensity);
+    return getScreenContext (oldContext.foregroundColor, oldContext.backgroundColor,
+                             oldContext.highlight, highIntensity);
   }
 
-  private ScreenContext addNewContext (Color foregroundColor, Color backgroundColor,
+  // foreground (8 bits), background (8 bits), highlight (8 bits), intensity (1 bit)
+  private static int getKey (Color foregroundColor, Color backgroundColor,
       byte highlight, boolean highIntensity)
   {
-    ScreenContext newContext = new ScreenContext (foregroundColor, backgroundColor,
-        highlight, highIntensity, fontDetails);
-    contextPool.add (newContext);
-    return newContext;
+    return getColorId (foregroundColor) << 17 | getColorId (backgroundColor) << 9
+        | (highlight & 0xFF) << 1 | (highIntensity ? 1 : 0);
+  }
+
+  // any colour that isn't one of ColorAttribute's gets the next id
+  private static int getColorId (Color color)
+  {
+    Integer id = colorIds.get (color);
+    if (id != null)
+      return id;
+
+    synchronized (colorIds)
+    {
+      return colorIds.computeIfAbsent (color, c ->
+      {
+        int newId = colorIds.size ();
+        if (newId > MAX_COLOR_ID)           // it would share a key with another colour
+          throw new IllegalStateException ("Too many colours: " + color);
+        return newId;
+      });
+    }
+  }
+
+  // two threads can both miss the same key, so check again with the pool locked
+  private ScreenContext addNewContext (int key, Color foregroundColor,
+      Color backgroundColor, byte highlight, boolean highIntensity)
+  {
+    synchronized (contextPool)
+    {
+      ScreenContext screenContext = contextKeys.get (key);
+      if (screenContext != null)
+        return screenContext;
+
+      ScreenContext newContext = new ScreenContext (foregroundColor, backgroundColor,
+          highlight, highIntensity, fontDetails);
+      newContext.id = contextPool.size ();
+      contextPool.add (newContext);
+      contextKeys.put (key, newContext);      // only visible once it is in the pool
+      return newContext;
+    }
   }
-}
\ No newline at end of file
+}
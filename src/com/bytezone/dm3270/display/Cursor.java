@@ -310,7 +310,8 @@ public class Cursor
 
   void notifyFieldChange (Field oldField, Field currentField)
   {
-    fieldChangeListeners.forEach (l -> l.fieldChanged (oldField, currentField));
+    Screen.runOnFxThread ( () -> fieldChangeListeners
+        .forEach (l -> l.fieldChanged (oldField, currentField)));
   }
 
   public void addFieldChangeListener (FieldChangeListener listener)
@@ -334,8 +335,8 @@ public class Cursor
   void notifyCursorMove (int oldLocation, int currentLocation, Field currentField,
       int offset)
   {
-    cursorMoveListeners
-        .forEach (l -> l.cursorMoved (oldLocation, currentLocation, currentField));
+    Screen.runOnFxThread ( () -> cursorMoveListeners
+        .forEach (l -> l.cursorMoved (oldLocation, currentLocation, currentField)));
   }
 
   public void addCursorMoveListener (CursorMoveListener listener)
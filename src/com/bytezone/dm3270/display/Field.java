@@ -1,39 +1,50 @@
 package com.bytezone.dm3270.display;
 
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 import com.bytezone.dm3270.plugins.PluginField;
 import com.bytezone.dm3270.plugins.ScreenLocation;
 
+// A field is the positions from its StartFieldAttribute up to the next one, which may
+// wrap around the end of the buffer. It only keeps where it starts and ends, and finds
+// its ScreenPositions in the screen's array.
+
 public class Field implements Iterable<ScreenPosition>
 {
   private final Screen screen;
 
   private final int startPosition;        // position of StartFieldAttribute
   private final int endPosition;          // last data position of this field
+  private final int length;               // positions including the start field
   private Field next, previous;           // unprotected fields
 
-  private final StartFieldAttribute startFieldAttribute;
-  private final List<ScreenPosition> screenPositions;
+  private StartFieldAttribute startFieldAttribute;
+  private final ScreenPosition[] screenPositions;     // the whole buffer
   private final ScreenDimensions screenDimensions;
 
-  public Field (Screen screen, List<ScreenPosition> positions)
+  public Field (Screen screen, int startPosition, int endPosition)
   {
     this.screen = screen;
     this.screenDimensions = screen.getScreenDimensions ();
+    this.startPosition = startPosition;
+    this.endPosition = endPosition;
 
-    ScreenPosition firstScreenPosition = positions.get (0);
-    ScreenPosition lastScreenPosition = positions.get (positions.size () - 1);
-
-    screenPositions = new ArrayList<> (positions);
-    startFieldAttribute = firstScreenPosition.getStartFieldAttribute ();
+    screenPositions = screen.getScreenPositions ();
+    length = endPosition >= startPosition ? endPosition - startPosition + 1
+        : screenPositions.length - startPosition + endPosition + 1;
+    startFieldAttribute = screenPositions[startPosition].getStartFieldAttribute ();
+  }
 
-    startPosition = firstScreenPosition.getPosition ();
-    endPosition = lastScreenPosition.getPosition ();
+  // the position this far into the field, where 0 is the start field attribute
+  private ScreenPosition getScreenPosition (int offset)
+  {
+    int position = startPosition + offset;
+    if (position >= screenPositions.length)
+      position -= screenPositions.length;
+    return screenPositions[position];
   }
 
   // link two unprotected fields to each other
@@ -71,9 +82,31 @@ public class Field implements Iterable<ScreenPosition>
     return startFieldAttribute;
   }
 
+  // called from FieldManager.updateFields() when the host has replaced the attribute
+  // without changing the field's protection, so the links are still correct
+  void setStartFieldAttribute (StartFieldAttribute startFieldAttribute)
+  {
+    assert startFieldAttribute.isProtected () == this.startFieldAttribute.isProtected ();
+    this.startFieldAttribute = startFieldAttribute;
+  }
+
+  // called from FieldManager.updateFields()
+  // called from ScreenPacker.readModifiedFields()
+  int getStartPosition ()
+  {
+    return startPosition;
+  }
+
+  // called from FieldManager.updateFields()
+  // called from ScreenPacker.readModifiedFields()
+  int getEndPosition ()
+  {
+    return endPosition;
+  }
+
   public int getDisplayLength ()
   {
-    return screenPositions.size () - 1;
+    return length - 1;
   }
 
   // called from Cursor.tab()
@@ -85,7 +118,7 @@ public class Field implements Iterable<ScreenPosition>
   // called from FieldManager.getMenus()
   // called from Screen.eraseAllUnprotected()
   // called from ScreenDetails.*()
-  // called from ScreenPacker.packField()
+  // called from ScreenPacker.readModifiedFields()
   public int getFirstLocation ()
   {
     return screen.validate (startPosition + 1);
@@ -182,8 +215,8 @@ public class Field implements Iterable<ScreenPosition>
   // called from this.setText()
   public void erase ()
   {
-    for (int i = 1; i < screenPositions.size (); i++)
-      screenPositions.get (i).setChar ((byte) 0);
+    for (int i = 1; i < length; i++)
+      getScreenPosition (i).setChar ((byte) 0);
     setModified (true);
   }
 
@@ -194,8 +227,8 @@ public class Field implements Iterable<ScreenPosition>
     if (alterModifiedFlag)                  // don't reset any already set flags
       setModified (true);
 
-    for (int i = 1; i < screenPositions.size (); i++)
-      screenPositions.get (i).setChar ((byte) 0);         // leave screenContext
+    for (int i = 1; i < length; i++)
+      getScreenPosition (i).setChar ((byte) 0);           // leave screenContext
   }
 
   // called from AIDCommand.process()
@@ -203,7 +236,7 @@ public class Field implements Iterable<ScreenPosition>
   public void clearData (int first, int last)
   {
     for (int i = first; i <= last; i++)
-      screenPositions.get (i).setChar ((byte) 0);
+      getScreenPosition (i).setChar ((byte) 0);
   }
 
   // overwrites each position with the position to its right (delete)
@@ -211,12 +244,12 @@ public class Field implements Iterable<ScreenPosition>
   // called from Cursor.delete()
   void pull (int first, int last)
   {
-    ScreenPosition spFirst = screenPositions.get (first);
-    ScreenPosition spLast = screenPositions.get (last);
+    ScreenPosition spFirst = getScreenPosition (first);
+    ScreenPosition spLast = getScreenPosition (last);
 
     while (first < last)
     {
-      ScreenPosition sp = screenPositions.get (++first);
+      ScreenPosition sp = getScreenPosition (++first);
       spFirst.setChar (sp.getByte ());
       spFirst.setScreenContext (sp.getScreenContext ());
       spFirst = sp;
@@ -230,10 +263,10 @@ public class Field implements Iterable<ScreenPosition>
   // called from Cursor.typeChar()
   void push (int first, int last)
   {
-    ScreenPosition spLast = screenPositions.get (last);
+    ScreenPosition spLast = getScreenPosition (last);
     while (first < last)
     {
-      ScreenPosition sp = screenPositions.get (--last);
+      ScreenPosition sp = getScreenPosition (--last);
       spLast.setChar (sp.getByte ());
       spLast.setScreenContext (sp.getScreenContext ());
       spLast = sp;
@@ -243,7 +276,7 @@ public class Field implements Iterable<ScreenPosition>
   // called from Cursor.typeChar()
   byte getByteAt (int position)
   {
-    return screenPositions.get (position).getByte ();
+    return getScreenPosition (position).getByte ();
   }
 
   // called from FieldManager.*()
@@ -257,12 +290,8 @@ public class Field implements Iterable<ScreenPosition>
     char[] buffer = new char[getDisplayLength ()];
     int ptr = 0;
 
-    for (ScreenPosition screenPosition : screenPositions)
-      if (!screenPosition.isStartField ())           // skip the start field attribute
-        if (ptr < buffer.length)
-          buffer[ptr++] = screenPosition.getChar ();
-        else
-          System.out.printf ("Too long: %d%n", ptr);
+    for (int i = 1; i < length; i++)                // skip the start field attribute
+      buffer[ptr++] = getScreenPosition (i).getChar ();
 
     return new String (buffer);
   }
@@ -289,8 +318,8 @@ public class Field implements Iterable<ScreenPosition>
   {
     int ptr = 1;
     for (byte b : buffer)
-      if (ptr < screenPositions.size ())
-        screenPositions.get (ptr++).setChar (b);
+      if (ptr < length)
+        getScreenPosition (ptr++).setChar (b);
       else
       {
         System.out.println ("Buffer overrun");
@@ -338,6 +367,23 @@ public class Field implements Iterable<ScreenPosition>
   @Override
   public Iterator<ScreenPosition> iterator ()
   {
-    return screenPositions.iterator ();
+    return new Iterator<ScreenPosition> ()
+    {
+      private int offset = 0;
+
+      @Override
+      public boolean hasNext ()
+      {
+        return offset < length;
+      }
+
+      @Override
+      public ScreenPosition next ()
+      {
+        if (offset >= length)
+          throw new NoSuchElementException ();
+        return getScreenPosition (offset++);
+      }
+    };
   }
 }
\ No newline at end of file
@@ -3,6 +3,8 @@ package com.bytezone.dm3270.display;
 import static com.bytezone.dm3270.database.DatabaseRequest.Command.CLOSE;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -31,6 +33,8 @@ public class FieldManager implements Initiator
   private final List<Field> fields = new ArrayList<> ();
   private final List<Field> unprotectedFields = new ArrayList<> ();
   private final List<Field> emptyFields = new ArrayList<> ();
+  private int[] fieldIndex = new int[0];          // field number at each position
+  private int[] startPositions = new int[0];      // used by divide()
 
   private int dataPositions;
   private int inputPositions;
@@ -84,6 +88,7 @@ public class FieldManager implements Initiator
     fields.clear ();
     unprotectedFields.clear ();
     emptyFields.clear ();
+    Arrays.fill (fieldIndex, -1);
   }
 
   void close ()
@@ -99,21 +104,101 @@ public class FieldManager implements Initiator
       }
   }
 
-  // this is called after the pen and screen positions have been modified
-  void buildFields (ScreenPosition[] screenPositions)
+  // This is called after the pen and screen positions have been modified. When the
+  // start fields are all where they were, with the same protection, the fields and
+  // their links are kept and only the fields that have been changed are redone.
+  void buildFields (ScreenBuffer buffer)
+  {
+    if (layoutMatches (buffer))
+      updateFields (buffer);
+    else
+      rebuildFields (buffer);
+
+    buffer.clearFieldChanges ();
+  }
+
+  // every start field is still the start of the same Field, and nothing else is
+  private boolean layoutMatches (ScreenBuffer buffer)
+  {
+    if (fields.isEmpty () || fieldIndex.length != buffer.size ())
+      return false;
+
+    int totalStartFields = 0;
+    for (int position = 0; position < fieldIndex.length; position++)
+      if (buffer.isStartField (position))
+      {
+        Field field = fields.get (fieldIndex[position]);
+        if (field.getStartPosition () != position || field.isProtected () != buffer
+            .getStartFieldAttribute (position).isProtected ())
+          return false;
+        ++totalStartFields;
+      }
+
+    return totalStartFields == fields.size ();
+  }
+
+  // redo the contexts of any field with a new attribute or a changed position
+  private void updateFields (ScreenBuffer buffer)
+  {
+    boolean fieldsChanged = false;
+    BitSet fieldChanges = buffer.getFieldChanges ();
+
+    for (Field field : fields)
+    {
+      int start = field.getStartPosition ();
+      StartFieldAttribute startFieldAttribute = buffer.getStartFieldAttribute (start);
+      boolean replaced = field.getStartFieldAttribute () != startFieldAttribute;
+
+      if (replaced || containsChange (field, fieldChanges))
+      {
+        if (replaced)
+          field.setStartFieldAttribute (startFieldAttribute);
+        setContexts (buffer, start, field.getEndPosition ());
+        fieldsChanged = true;
+      }
+    }
+
+    if (fieldsChanged)
+      countFields ();
+
+    if (fieldsChanged || buffer.isContentChanged ())
+    {
+      screenWatcher.check ();
+      fireScreenChanged (screenWatcher);
+    }
+  }
+
+  // a field may wrap around the end of the buffer
+  private boolean containsChange (Field field, BitSet fieldChanges)
+  {
+    int next = fieldChanges.nextSetBit (field.getStartPosition ());
+    if (next >= 0 && field.contains (next))
+      return true;
+    next = fieldChanges.nextSetBit (0);
+    return next >= 0 && field.contains (next);
+  }
+
+  private void rebuildFields (ScreenBuffer buffer)
   {
     reset ();
 
-    dataPositions = 0;
-    inputPositions = 0;
-    hiddenProtectedFields = 0;
-    hiddenUnprotectedFields = 0;
+    if (fieldIndex.length != buffer.size ())
+    {
+      fieldIndex = new int[buffer.size ()];
+      startPositions = new int[buffer.size ()];
+    }
 
-    for (List<ScreenPosition> protoField : divide (screenPositions))
+    int totalFields = divide (buffer, startPositions);
+    indexFields (startPositions, totalFields, fieldIndex);
+
+    for (int fieldNo = 0; fieldNo < totalFields; fieldNo++)
     {
-      addField (new Field (screen, protoField));
-      setContexts (protoField);
+      int start = startPositions[fieldNo];
+      int end = getEndPosition (startPositions, totalFields, fieldNo, buffer.size ());
+      fields.add (new Field (screen, start, end));
+      setContexts (buffer, start, end);
     }
+    countFields ();
 
     //    assert dataPositions + fields.size () == 1920 || fields.size () == 0;
 
@@ -157,28 +242,40 @@ public class FieldManager implements Initiator
     fireScreenChanged (screenWatcher);
   }
 
-  private void addField (Field field)
+  private void countFields ()
   {
-    fields.add (field);
+    dataPositions = 0;
+    inputPositions = 0;
+    hiddenProtectedFields = 0;
+    hiddenUnprotectedFields = 0;
+    emptyFields.clear ();
 
-    dataPositions += field.getDisplayLength ();
+    for (Field field : fields)
+    {
+      dataPositions += field.getDisplayLength ();
 
-    if (field.getDisplayLength () == 0)
-      emptyFields.add (field);
+      if (field.getDisplayLength () == 0)
+        emptyFields.add (field);
 
-    if (field.isUnprotected ())
-      inputPositions += field.getDisplayLength ();
+      if (field.isUnprotected ())
+        inputPositions += field.getDisplayLength ();
 
-    if (field.isHidden ())
-      if (field.isProtected ())
-        ++hiddenProtectedFields;
-      else
-        ++hiddenUnprotectedFields;
+      if (field.isHidden ())
+        if (field.isProtected ())
+          ++hiddenProtectedFields;
+        else
+          ++hiddenUnprotectedFields;
+    }
   }
 
-  public Optional<Field> getFieldAt (int position)        // should this be indexed?
+  // called from Cursor.setCurrentField()
+  // called from AIDCommand.process()
+  // called from PluginsStage.processReply()
+  public Optional<Field> getFieldAt (int position)
   {
-    return fields.parallelStream ().filter (f -> f.contains (position)).findAny ();
+    if (position < 0 || position >= fieldIndex.length || fieldIndex[position] < 0)
+      return Optional.empty ();
+    return Optional.of (fields.get (fieldIndex[position]));
   }
 
   public List<Field> getUnprotectedFields ()
@@ -313,7 +410,8 @@ public class FieldManager implements Initiator
 
   private void fireScreenChanged (ScreenWatcher screenWatcher)
   {
-    screenChangeListeners.forEach (listener -> listener.screenChanged (screenWatcher));
+    Screen.runOnFxThread ( () -> screenChangeListeners
+        .forEach (listener -> listener.screenChanged (screenWatcher)));
   }
 
   public void addScreenChangeListener (ScreenChangeListener listener)
@@ -332,87 +430,87 @@ public class FieldManager implements Initiator
   // Divide the ScreenPositions into fields
   // ---------------------------------------------------------------------------------//
 
-  static List<List<ScreenPosition>> divide (ScreenPosition[] screenPositions)
+  // Fills startPositions with the position of each start field, in screen order, and
+  // returns how many there are. A field is every position from its start field up to
+  // the next one, and the positions before the first start field belong to the last
+  // field, so the start positions are all that is needed to describe the fields.
+  static int divide (ScreenBuffer buffer, int[] startPositions)
   {
-    List<List<ScreenPosition>> components = new ArrayList<> ();
-    List<ScreenPosition> positions = new ArrayList<ScreenPosition> ();
-
-    int start = -1;
-    int first = -1;
-    int ptr = 0;
+    int totalFields = 0;
+    for (int position = 0; position < buffer.size (); position++)
+      if (buffer.isStartField (position))
+        startPositions[totalFields++] = position;
 
-    while (ptr != first)                    // not wrapped around to the first field yet
-    {
-      ScreenPosition screenPosition = screenPositions[ptr];
+    return totalFields;
+  }
 
-      if (screenPosition.isStartField ())   // check for the start of a new field
-      {
-        if (start >= 0)                     // if there is a field to add
-        {
-          components.add (new ArrayList<> (positions));
-          positions.clear ();
-        }
-        else
-          first = ptr;                      // this is the first field on the screen
+  // the position before the next field's start field, which may have wrapped around
+  static int getEndPosition (int[] startPositions, int totalFields, int fieldNo,
+      int size)
+  {
+    int nextStart = startPositions[fieldNo + 1 == totalFields ? 0 : fieldNo + 1];
+    return nextStart == 0 ? size - 1 : nextStart - 1;
+  }
 
-        start = ptr;                        // beginning of the current field
-      }
+  // Sets each position's field number, or -1 if there are no fields. Once there is a
+  // field every position belongs to one.
+  static void indexFields (int[] startPositions, int totalFields, int[] fieldIndex)
+  {
+    if (totalFields == 0)
+      Arrays.fill (fieldIndex, -1);
 
-      if (start >= 0)                       // if we are in a field...
-        positions.add (screenPosition);     // collect next field's positions
+    for (int fieldNo = 0; fieldNo < totalFields; fieldNo++)
+    {
+      int start = startPositions[fieldNo];
+      int end = getEndPosition (startPositions, totalFields, fieldNo, fieldIndex.length);
 
-      // increment ptr and wrap around
-      if (++ptr == screenPositions.length)  // faster than validate()
+      if (start <= end)
+        Arrays.fill (fieldIndex, start, end + 1, fieldNo);
+      else
       {
-        ptr = 0;
-        if (first == -1)
-          break;                            // wrapped around and still no fields
+        Arrays.fill (fieldIndex, start, fieldIndex.length, fieldNo);
+        Arrays.fill (fieldIndex, 0, end + 1, fieldNo);
       }
     }
-
-    if (start >= 0 && positions.size () > 0)
-      components.add (new ArrayList<> (positions));
-
-    return components;
   }
 
   // ---------------------------------------------------------------------------------//
   // Process a field's ScreenPositions
   // ---------------------------------------------------------------------------------//
 
-  void setContexts (List<ScreenPosition> positions)
+  // called from buildFields() and HistoryScreen.createScreen()
+  void setContexts (ScreenBuffer buffer, int start, int end)
   {
-    StartFieldAttribute startFieldAttribute = positions.get (0).getStartFieldAttribute ();
+    StartFieldAttribute startFieldAttribute = buffer.getStartFieldAttribute (start);
     ScreenContext defaultContext =
         startFieldAttribute.process (contextManager, null, null);
+    boolean extended = startFieldAttribute.isExtended ();
+    boolean hidden = startFieldAttribute.isHidden ();
 
-    if (startFieldAttribute.isExtended ())
-      setExtendedContext (defaultContext, positions);
-    else
-      positions.forEach (sp -> sp.setScreenContext (defaultContext));
-
-    if (startFieldAttribute.isHidden ())
-      positions.forEach (sp -> sp.setVisible (false));
-  }
-
-  private void setExtendedContext (ScreenContext defaultContext,
-      List<ScreenPosition> positions)
-  {
-    boolean first = true;
     ScreenContext currentContext = defaultContext;
+    int position = start;
 
-    for (ScreenPosition screenPosition : positions)
+    while (true)
     {
-      for (Attribute attribute : screenPosition.getAttributes ())
-        currentContext =
-            attribute.process (contextManager, defaultContext, currentContext);
-
-      if (first)
+      if (extended)
       {
-        first = false;
-        defaultContext = currentContext;
+        List<Attribute> attributes = buffer.getAttributes (position);
+        for (int i = 0; i < attributes.size (); i++)        // no iterator
+          currentContext = attributes.get (i).process (contextManager, defaultContext,
+                                                       currentContext);
+
+        if (position == start)
+          defaultContext = currentContext;
       }
-      screenPosition.setScreenContext (currentContext);
+
+      buffer.setScreenContext (position, currentContext);
+      if (hidden)
+        buffer.setVisible (position, false);
+
+      if (position == end)
+        break;
+      if (++position == buffer.size ())           // wrap around
+        position = 0;
     }
   }
 
@@ -12,6 +12,7 @@ public class FontDetails
   public final int ascent;
   public final int descent;
   public final Font font;
+  public final boolean alignedText;     // a string's characters line up with the cells
 
   public final String name;
   public final int size;
@@ -26,6 +27,10 @@ public class FontDetails
         Toolkit.getToolkit ().getFontLoader ().getFontMetrics (font);
     width = (int) (fontMetrics.computeStringWidth ("W") + 0.9);
 
+    // only true when every character is exactly a whole cell wide
+    alignedText = fontMetrics.computeStringWidth ("WWWWWWWWWW") == width * 10
+        && fontMetrics.computeStringWidth ("iiiiiiiiii") == width * 10;
+
     ascent = (int) (fontMetrics.getAscent () + fontMetrics.getLeading () + 0.9);
     descent = (int) (fontMetrics.getDescent () + 0.9);
     height = ascent + descent;
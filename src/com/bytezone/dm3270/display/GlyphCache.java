@@ -0,0 +1,175 @@
+package com.bytezone.dm3270.display;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+// Every screen position that has been drawn, kept as a picture of the cell in an atlas
+// image - background, character or box-drawing graphic, and underline. A cell that
+// looks the same as one drawn before is copied from the atlas with a single drawImage
+// instead of being painted again. A new cell is painted once on a small canvas and
+// copied into a free slot in the atlas. When the atlas is full the least recently
+// used cell is replaced. The atlas is for one font, so a cell in any other font (which
+// is what happens after FontManager changes it) empties the cache first.
+
+class GlyphCache
+{
+  private static final int ATLAS_COLUMNS = 32;
+  private static final int ATLAS_ROWS = 32;
+  private static final int CAPACITY = ATLAS_COLUMNS * ATLAS_ROWS;
+
+  // cell key -> slot in the atlas, least recently used first
+  private final Map<Long, Integer> slots = new LinkedHashMap<> (CAPACITY, 0.75f, true);
+
+  private FontDetails fontDetails;
+  private WritableImage atlas;
+  private Canvas cell;
+  private WritableImage cellImage;
+
+  // called by ScreenBuffer.draw()
+  void draw (GraphicsContext gc, double x, double y, ScreenContext screenContext,
+      String text, byte value, boolean isGraphics, boolean isVisible, boolean hasCursor)
+  {
+    if (fontDetails != screenContext.fontDetails)
+      setFont (screenContext.fontDetails);
+
+    // swap the colours for the cursor or reverse video
+    boolean swap = isVisible ? hasCursor ^ screenContext.reverseVideo : hasCursor;
+    if (!isVisible)
+    {
+      value = 0;
+      isGraphics = false;
+    }
+
+    long key = (long) screenContext.id << 11 | (swap ? 0x400 : 0)
+        | (isVisible ? 0x200 : 0) | (isGraphics ? 0x100 : 0) | (value & 0xFF);
+
+    Integer slot = slots.get (key);
+    if (slot == null)
+    {
+      slot = getFreeSlot ();
+      slots.put (key, slot);
+      paint (slot, screenContext, text, value, isGraphics, isVisible, swap);
+    }
+
+    int width = fontDetails.width;
+    int height = fontDetails.height;
+    gc.drawImage (atlas, slot % ATLAS_COLUMNS * width, slot / ATLAS_COLUMNS * height,
+                  width, height, x, y, width, height);
+  }
+
+  // the next unused slot, or the one used least recently
+  private int getFreeSlot ()
+  {
+    if (slots.size () < CAPACITY)
+      return slots.size ();
+
+    Iterator<Integer> iterator = slots.values ().iterator ();
+    int slot = iterator.next ();
+    iterator.remove ();
+    return slot;
+  }
+
+  private void setFont (FontDetails fontDetails)
+  {
+    this.fontDetails = fontDetails;
+    slots.clear ();
+
+    atlas = new WritableImage (ATLAS_COLUMNS * fontDetails.width,
+        ATLAS_ROWS * fontDetails.height);
+    cell = new Canvas (fontDetails.width, fontDetails.height);
+    cellImage = new WritableImage (fontDetails.width, fontDetails.height);
+    cell.getGraphicsContext2D ().setFont (fontDetails.font);
+  }
+
+  // draws the cell the way ScreenPosition always has, then copies it into the atlas
+  private void paint (int slot, ScreenContext screenContext, String text, byte value,
+      boolean isGraphics, boolean isVisible, boolean swap)
+  {
+    GraphicsContext gc = cell.getGraphicsContext2D ();
+    int width = fontDetails.width;
+    int height = fontDetails.height;
+
+    Color background =
+        swap ? screenContext.foregroundColor : screenContext.backgroundColor;
+    Color foreground =
+        swap ? screenContext.backgroundColor : screenContext.foregroundColor;
+
+    // Draw background
+    gc.setFill (background);
+    gc.fillRect (0, 0, width, height);
+
+    // Draw foreground
+    if (isVisible)
+      if (isGraphics)
+      {
+        gc.setStroke (foreground);
+        doGraphics (gc, value);
+      }
+      else
+      {
+        gc.setFill (foreground);
+        gc.fillText (text, 0, fontDetails.ascent);
+
+        if (screenContext.underscore)
+        {
+          gc.setStroke (foreground);
+          double y2 = height - 0.5;     // stroke commands need to be offset for Windows
+          gc.strokeLine (0.5, y2, width + 0.5, y2);
+        }
+      }
+
+    cell.snapshot (null, cellImage);
+    atlas.getPixelWriter ().setPixels (slot % ATLAS_COLUMNS * width,
+                                       slot / ATLAS_COLUMNS * height, width, height,
+                                       cellImage.getPixelReader (), 0, 0);
+  }
+
+  private void doGraphics (GraphicsContext gc, byte value)
+  {
+    double x = 0.5;     // stroke commands need to be offset for Windows
+    double y = 0.5;
+
+    int dx = fontDetails.width / 2;
+    int dy = fontDetails.height / 2;
+
+    switch (value)
+    {
+      case ScreenPosition.HORIZONTAL_LINE:
+        gc.strokeLine (x, y + dy, x + fontDetails.width, y + dy);
+        break;
+
+      case ScreenPosition.VERTICAL_LINE:
+        gc.strokeLine (x + dx, y, x + dx, y + fontDetails.height);
+        break;
+
+      case ScreenPosition.TOP_LEFT:
+        gc.strokeLine (x + dx, y + dy, x + dx, y + fontDetails.height);   // vertical
+        gc.strokeLine (x + dx, y + dy, x + fontDetails.width, y + dy);    // horizontal
+        break;
+
+      case ScreenPosition.TOP_RIGHT:
+        gc.strokeLine (x + dx, y + dy, x + dx, y + fontDetails.height);   // vertical
+        gc.strokeLine (x, y + dy, x + dx, y + dy);                        // horizontal
+        break;
+
+      case ScreenPosition.BOTTOM_LEFT:
+        gc.strokeLine (x + dx, y, x + dx, y + dy);                        // vertical
+        gc.strokeLine (x + dx, y + dy, x + fontDetails.width, y + dy);    // horizontal
+        break;
+
+      case ScreenPosition.BOTTOM_RIGHT:
+        gc.strokeLine (x + dx, y, x + dx, y + dy);                        // vertical
+        gc.strokeLine (x, y + dy, x + dx, y + dy);                        // horizontal
+        break;
+
+      default:
+        gc.fillText (".", x, y + fontDetails.ascent);
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package com.bytezone.dm3270.display;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.commands.AIDCommand;
+import com.bytezone.dm3270.commands.WriteCommand;
+import com.bytezone.dm3270.commands.WriteControlCharacter;
+import com.bytezone.dm3270.orders.BufferAddress;
+import com.bytezone.dm3270.orders.OrderStream;
+
+// A screen buffer without a Canvas, used by the LoadGenerator to run many sessions
+// in one process. Orders are applied to the same Pen and ScreenBuffer that Screen
+// uses, the fields are divided up by FieldManager, and the reply is packed the same
+// way as ScreenPacker does it - but nothing is ever drawn, and there is no cursor,
+// history, plugins or JavaFX thread. Each instance belongs to a single thread.
+
+public class HeadlessScreen implements DisplayScreen
+{
+  private final ScreenDimensions screenDimensions;
+  private final ScreenBuffer screenBuffer;
+  private final Pen pen;
+
+  // the fields are only their start positions, see FieldManager.divide()
+  private final int[] startPositions;
+  private final int[] unprotectedFields;          // field numbers
+  private final int[] fieldIndex;                 // field number at each position
+  private int totalFields;
+  private int totalUnprotectedFields;
+  private final byte[] buffer = new byte[8192];
+
+  private int cursorLocation;
+  private boolean keyboardLocked = true;
+
+  // the ContextManager's pool is shared, so create it once for every session
+  public HeadlessScreen (ScreenDimensions screenDimensions,
+      ContextManager contextManager)
+  {
+    this.screenDimensions = screenDimensions;
+
+    screenBuffer = new ScreenBuffer (screenDimensions, null, contextManager);
+    pen = Pen.getInstance (screenBuffer, screenDimensions);
+    startPositions = new int[screenBuffer.size ()];
+    unprotectedFields = new int[screenBuffer.size ()];
+    fieldIndex = new int[screenBuffer.size ()];
+    Arrays.fill (fieldIndex, -1);
+  }
+
+  // the equivalent of WriteCommand.process()
+  public void write (WriteCommand command)
+  {
+    keyboardLocked = true;
+
+    if (command.isEraseWrite ())
+      clearScreen ();
+
+    OrderStream orders = command.getOrderStream ();
+    if (orders.size () > 0)
+    {
+      orders.process (this);            // modifies pen
+      buildFields ();
+    }
+
+    WriteControlCharacter wcc = command.getWriteControlCharacter ();
+    if (wcc != null)
+    {
+      if (wcc.isResetModified ())
+        resetModified ();
+      if (wcc.isRestoreKeyboard ())
+        keyboardLocked = false;
+    }
+  }
+
+  // the equivalent of Screen.eraseAllUnprotected()
+  public void eraseAllUnprotected ()
+  {
+    for (int i = 0; i < totalUnprotectedFields; i++)
+    {
+      int fieldNo = unprotectedFields[i];
+      for (int offset = 1; offset <= getDataLength (fieldNo); offset++)
+        screenBuffer.setChar (validate (startPositions[fieldNo] + offset), (byte) 0);
+    }
+
+    resetModified ();
+    keyboardLocked = false;
+
+    if (totalUnprotectedFields > 0)
+      cursorLocation = getFirstLocation (unprotectedFields[0]);
+  }
+
+  private void buildFields ()
+  {
+    totalFields = FieldManager.divide (screenBuffer, startPositions);
+    FieldManager.indexFields (startPositions, totalFields, fieldIndex);
+
+    totalUnprotectedFields = 0;
+    for (int fieldNo = 0; fieldNo < totalFields; fieldNo++)
+      if (!getStartFieldAttribute (fieldNo).isProtected ())
+        unprotectedFields[totalUnprotectedFields++] = fieldNo;
+  }
+
+  private void resetModified ()
+  {
+    for (int i = 0; i < totalUnprotectedFields; i++)
+      getStartFieldAttribute (unprotectedFields[i]).setModified (false);
+  }
+
+  private StartFieldAttribute getStartFieldAttribute (int fieldNo)
+  {
+    return screenBuffer.getStartFieldAttribute (startPositions[fieldNo]);
+  }
+
+  private int getFirstLocation (int fieldNo)
+  {
+    return validate (startPositions[fieldNo] + 1);
+  }
+
+  // positions after the start field
+  private int getDataLength (int fieldNo)
+  {
+    return validate (getFieldEnd (fieldNo) - startPositions[fieldNo]);
+  }
+
+  // called when an AID is sent
+  public void lockKeyboard ()
+  {
+    keyboardLocked = true;
+  }
+
+  public boolean isKeyboardLocked ()
+  {
+    return keyboardLocked;
+  }
+
+  public int getUnprotectedFieldCount ()
+  {
+    return totalUnprotectedFields;
+  }
+
+  public int getFieldCount ()
+  {
+    return totalFields;
+  }
+
+  // The field number at this position, or -1 - as FieldManager.getFieldAt() finds it.
+  // Field numbers here count every field, not just the unprotected ones.
+  public int getFieldAt (int position)
+  {
+    return fieldIndex[position];
+  }
+
+  // position of the field's StartFieldAttribute
+  public int getFieldStart (int fieldNo)
+  {
+    return startPositions[fieldNo];
+  }
+
+  // last data position of the field, which may have wrapped around
+  public int getFieldEnd (int fieldNo)
+  {
+    return FieldManager.getEndPosition (startPositions, totalFields, fieldNo,
+                                        screenBuffer.size ());
+  }
+
+  public int getFieldLength (int unprotectedFieldNo)
+  {
+    return getDataLength (unprotectedFields[unprotectedFieldNo]);
+  }
+
+  // the equivalent of typing into the field, so it is marked as modified
+  public void setFieldText (int unprotectedFieldNo, String text)
+  {
+    int fieldNo = unprotectedFields[unprotectedFieldNo];
+    int length = getDataLength (fieldNo);
+    try
+    {
+      byte[] bytes = text.getBytes ("CP1047");
+      for (int i = 1; i <= length; i++)
+        screenBuffer.setChar (validate (startPositions[fieldNo] + i),
+                              i <= bytes.length ? bytes[i - 1] : 0);
+      getStartFieldAttribute (fieldNo).setModified (true);
+      cursorLocation =
+          validate (getFirstLocation (fieldNo) + Math.min (bytes.length, length));
+    }
+    catch (UnsupportedEncodingException e)
+    {
+      e.printStackTrace ();
+    }
+  }
+
+  // the equivalent of ScreenPacker.readModifiedFields()
+  public AIDCommand readModifiedFields (byte aid, boolean readModifiedAll)
+  {
+    int ptr = 0;
+    buffer[ptr++] = aid;
+
+    // PA keys and the CLR key only return the AID byte
+    if (!readModifiedAll)
+      if (aid == AIDCommand.AID_PA1 || aid == AIDCommand.AID_PA2
+          || aid == AIDCommand.AID_PA3 || aid == AIDCommand.AID_CLEAR)
+        return new AIDCommand (buffer, 0, ptr);
+
+    BufferAddress ba = new BufferAddress (cursorLocation);
+    ptr = ba.packAddress (buffer, ptr);
+
+    for (int i = 0; i < totalUnprotectedFields; i++)
+    {
+      int fieldNo = unprotectedFields[i];
+      if (getStartFieldAttribute (fieldNo).isModified ())
+        ptr = ScreenPacker.packField (screenBuffer, startPositions[fieldNo],
+                                      getFieldEnd (fieldNo), getFirstLocation (fieldNo),
+                                      buffer, ptr);
+    }
+
+    return new AIDCommand (buffer, 0, ptr);
+  }
+
+  public String getScreenText ()
+  {
+    return pen.getScreenText ();
+  }
+
+  // How many positions a Screen would repaint now, which is the ones that have changed
+  // since the last call. Nothing is ever drawn here, so this clears them as well.
+  public int getChangedPositions ()
+  {
+    int total = screenBuffer.totalChanged ();
+    screenBuffer.clearChanged ();
+    return total;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // DisplayScreen interface methods
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public Pen getPen ()
+  {
+    return pen;
+  }
+
+  @Override
+  public ScreenDimensions getScreenDimensions ()
+  {
+    return screenDimensions;
+  }
+
+  @Override
+  public ScreenPosition getScreenPosition (int position)
+  {
+    return screenBuffer.getScreenPositions ()[position];
+  }
+
+  @Override
+  public ScreenPosition[] getScreenPositions ()
+  {
+    return screenBuffer.getScreenPositions ();
+  }
+
+  @Override
+  public int validate (int position)
+  {
+    return pen.validate (position);
+  }
+
+  @Override
+  public void clearScreen ()
+  {
+    cursorLocation = 0;
+    pen.clearScreen ();
+    totalFields = 0;
+    totalUnprotectedFields = 0;
+    Arrays.fill (fieldIndex, -1);
+  }
+
+  @Override
+  public void insertCursor (int position)
+  {
+    cursorLocation = position;
+  }
+}
@@ -1,7 +1,5 @@
 package com.bytezone.dm3270.display;
 
-import java.util.List;
-
 import com.bytezone.dm3270.attributes.ColorAttribute;
 import com.bytezone.dm3270.commands.AIDCommand;
 import com.bytezone.dm3270.orders.Order;
@@ -11,7 +9,7 @@ import javafx.scene.canvas.GraphicsContext;
 
 public class HistoryScreen extends Canvas implements DisplayScreen
 {
-  private ScreenPosition[] screenPositions;
+  private ScreenBuffer screenBuffer;
   private final ScreenDimensions screenDimensions;
 
   private final AIDCommand command;
@@ -46,11 +44,11 @@ public class HistoryScreen extends Canvas implements DisplayScreen
   // called by ConsolePane.changeScreen()
   public void drawScreen (FontDetails fontDetails)
   {
-    if (screenPositions == null)
+    if (screenBuffer == null)
       createScreen (fontDetails);
 
-    for (ScreenPosition screenPosition : screenPositions)
-      screenPosition.draw (false);
+    screenBuffer.setAllChanged ();
+    screenBuffer.drawChanged (screenBuffer.size ());
   }
 
   private void createScreen (FontDetails fontDetails)
@@ -61,16 +59,18 @@ public class HistoryScreen extends Canvas implements DisplayScreen
 
     gc.setFont (fontDetails.font);
 
-    screenPositions = new ScreenPosition[screenDimensions.size];
-    pen = Pen.getInstance (screenPositions, gc, contextManager, screenDimensions);
+    screenBuffer = new ScreenBuffer (screenDimensions, gc, contextManager);
+    pen = Pen.getInstance (screenBuffer, screenDimensions);
 
     clearScreen ();
     for (Order order : command)
       order.process (this);
 
-    List<List<ScreenPosition>> protoFields = FieldManager.divide (screenPositions);
-    for (List<ScreenPosition> protoField : protoFields)
-      fieldManager.setContexts (protoField);
+    int[] startPositions = new int[screenBuffer.size ()];
+    int totalFields = FieldManager.divide (screenBuffer, startPositions);
+    for (int fieldNo = 0; fieldNo < totalFields; fieldNo++)
+      fieldManager.setContexts (screenBuffer, startPositions[fieldNo], FieldManager
+          .getEndPosition (startPositions, totalFields, fieldNo, screenBuffer.size ()));
   }
 
   @Override
@@ -82,13 +82,13 @@ public class HistoryScreen extends Canvas implements DisplayScreen
   @Override
   public ScreenPosition getScreenPosition (int position)
   {
-    return screenPositions[position];
+    return screenBuffer.getScreenPositions ()[position];
   }
 
   @Override
   public ScreenPosition[] getScreenPositions ()
   {
-    return screenPositions;
+    return screenBuffer.getScreenPositions ();
   }
 
   @Override
@@ -116,9 +116,9 @@ public class HistoryScreen extends Canvas implements DisplayScreen
     StringBuilder text = new StringBuilder ();
     text.append (String.format ("Rows %d, Columns %d%n", screenDimensions.rows,
                                 screenDimensions.columns));
-    for (ScreenPosition sp : screenPositions)
+    for (int i = 0; i < screenBuffer.size (); i++)
     {
-      text.append (sp);
+      text.append (screenBuffer.toString (i));
       text.append ("\n");
     }
     return text.toString ();
@@ -3,16 +3,15 @@ package com.bytezone.dm3270.display;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 
-import javafx.scene.canvas.GraphicsContext;
-
 public interface Pen extends Iterable<ScreenPosition>
 {
-  static Pen getInstance (ScreenPosition[] screenPositions, GraphicsContext gc,
-      ContextManager contextManager, ScreenDimensions screenDimensions)
+  static Pen getInstance (ScreenBuffer buffer, ScreenDimensions screenDimensions)
   {
-    return new PenType1 (screenPositions, gc, contextManager, screenDimensions);
+    return new PenType1 (buffer, screenDimensions);
   }
 
+  ScreenBuffer getScreenBuffer ();
+
   void clearScreen ();
 
   void startField (StartFieldAttribute startFieldAttribute);
@@ -7,11 +7,9 @@ import java.util.List;
 import com.bytezone.dm3270.attributes.Attribute;
 import com.bytezone.dm3270.attributes.StartFieldAttribute;
 
-import javafx.scene.canvas.GraphicsContext;
-
 class PenType1 implements Pen
 {
-  private final ScreenPosition[] screenPositions;   // owned by Screen
+  private final ScreenBuffer buffer;                // owned by Screen
 
   private int currentPosition;
   private boolean formattedScreen;
@@ -20,17 +18,16 @@ class PenType1 implements Pen
   private final List<Attribute> pendingAttributes = new ArrayList<> ();
 
   // created by Screen and HistoryScreen
-  PenType1 (ScreenPosition[] screenPositions, GraphicsContext gc,
-      ContextManager contextManager, ScreenDimensions screenDimensions)
+  PenType1 (ScreenBuffer buffer, ScreenDimensions screenDimensions)
   {
-    this.screenPositions = screenPositions;
+    this.buffer = buffer;
     this.screenDimensions = screenDimensions;
-    //    columns = screenDimensions.columns;
-
-    ScreenContext defaultContext = contextManager.getDefaultScreenContext ();
+  }
 
-    for (int i = 0; i < screenPositions.length; i++)
-      screenPositions[i] = new ScreenPosition (i, gc, screenDimensions, defaultContext);
+  @Override
+  public ScreenBuffer getScreenBuffer ()
+  {
+    return buffer;
   }
 
   // called from Screen.clearScreen()
@@ -38,8 +35,7 @@ class PenType1 implements Pen
   @Override
   public void clearScreen ()
   {
-    for (ScreenPosition screenPosition : screenPositions)
-      screenPosition.reset ();
+    buffer.clear ();
 
     formattedScreen = false;
   }
@@ -50,11 +46,9 @@ class PenType1 implements Pen
   {
     formattedScreen = true;
 
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-
-    screenPosition.reset ();
-    screenPosition.setStartField (startFieldAttribute);
-    screenPosition.setVisible (false);
+    buffer.reset (currentPosition);
+    buffer.setStartField (currentPosition, startFieldAttribute);
+    buffer.setVisible (currentPosition, false);
 
     // sometimes a reset attribute is overwritten by a new SFA
     if (pendingAttributes.size () > 0)
@@ -91,9 +85,7 @@ class PenType1 implements Pen
   @Override
   public void writeGraphics (byte b)
   {
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-    screenPosition.reset ();
-    screenPosition.setGraphicsChar (b);
+    buffer.writeGraphics (currentPosition, b);
     moveRight ();
   }
 
@@ -103,16 +95,13 @@ class PenType1 implements Pen
   @Override
   public void write (byte b)
   {
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-    screenPosition.reset ();
-    screenPosition.setChar (b);
+    buffer.write (currentPosition, b);
     moveRight ();
   }
 
-  private void applyAttributes (ScreenPosition screenPosition)
+  private void applyAttributes (int position)
   {
-    for (Attribute attribute : pendingAttributes)
-      screenPosition.addAttribute (attribute);
+    buffer.addAttributes (position, pendingAttributes);
     pendingAttributes.clear ();
   }
 
@@ -125,7 +114,7 @@ class PenType1 implements Pen
   public void moveRight ()
   {
     if (pendingAttributes.size () > 0)
-      applyAttributes (screenPositions[currentPosition]);
+      applyAttributes (currentPosition);
 
     currentPosition = validate (currentPosition + 1);
   }
@@ -142,10 +131,9 @@ class PenType1 implements Pen
 
     while (true)
     {
-      ScreenPosition screenPosition = screenPositions[currentPosition];
-      if (screenPosition.isStartField ())
+      if (buffer.isStartField (currentPosition))
         break;
-      screenPosition.setChar ((byte) 0);
+      buffer.setChar (currentPosition, (byte) 0);
       moveRight ();
     }
   }
@@ -154,9 +142,8 @@ class PenType1 implements Pen
   @Override
   public void tab ()
   {
-    ScreenPosition screenPosition = screenPositions[currentPosition];
-    if (screenPosition.isStartField ()
-        && !screenPosition.getStartFieldAttribute ().isProtected ())
+    if (buffer.isStartField (currentPosition)
+        && !buffer.getStartFieldAttribute (currentPosition).isProtected ())
     {
       currentPosition = validate (currentPosition + 1);
       return;
@@ -170,8 +157,7 @@ class PenType1 implements Pen
         currentPosition = 0;
         break;
       }
-      screenPosition = screenPositions[next];
-      if (!screenPosition.getStartFieldAttribute ().isProtected ())
+      if (!buffer.getStartFieldAttribute (next).isProtected ())
       {
         currentPosition = validate (next + 1);
         break;
@@ -191,7 +177,7 @@ class PenType1 implements Pen
         for (Attribute attribute : pendingAttributes)
           System.out.println (attribute);
       }
-      applyAttributes (screenPositions[currentPosition]);
+      applyAttributes (currentPosition);
     }
     currentPosition = validate (position);
   }
@@ -202,9 +188,7 @@ class PenType1 implements Pen
     while (true)
     {
       pos = validate (pos + 1);
-      ScreenPosition screenPosition = screenPositions[pos];
-
-      if (screenPosition.isStartField ())
+      if (buffer.isStartField (pos))
         return pos;
 
       if (pos == position)
@@ -219,10 +203,10 @@ class PenType1 implements Pen
   public int validate (int position)
   {
     while (position < 0)
-      position += screenPositions.length;
+      position += buffer.size ();
 
-    while (position >= screenPositions.length)
-      position -= screenPositions.length;
+    while (position >= buffer.size ())
+      position -= buffer.size ();
 
     return position;
   }
@@ -231,8 +215,7 @@ class PenType1 implements Pen
   public void setScreenDimensions (ScreenDimensions screenDimensions)
   {
     this.screenDimensions = screenDimensions;
-    for (int i = 0; i < screenDimensions.size; i++)
-      screenPositions[i].setScreenDimensions (screenDimensions);
+    buffer.setScreenDimensions (screenDimensions);
   }
 
   @Override
@@ -240,14 +223,13 @@ class PenType1 implements Pen
   {
     StringBuilder text = new StringBuilder ();
 
-    int pos = 0;
-    for (ScreenPosition sp : screenPositions)
+    for (int pos = 0; pos < buffer.size (); pos++)
     {
-      if (sp.isStartField ())
+      if (buffer.isStartField (pos))
         text.append ("%");
       else
-        text.append (sp.getCharString ());
-      if (++pos % screenDimensions.columns == 0)
+        text.append (buffer.getCharString (pos));
+      if ((pos + 1) % screenDimensions.columns == 0)
         text.append ("\n");
     }
 
@@ -260,13 +242,13 @@ class PenType1 implements Pen
 
   private void dumpScreenPositions ()
   {
-    dumpScreenPositions (0, screenPositions.length);
+    dumpScreenPositions (0, buffer.size ());
   }
 
   private void dumpScreenPositions (int from, int to)
   {
     while (from < to)
-      System.out.println (screenPositions[from++]);
+      System.out.println (buffer.toString (from++));
   }
 
   @Override
@@ -279,13 +261,13 @@ class PenType1 implements Pen
       @Override
       public boolean hasNext ()
       {
-        return screenPositions.length > pos;
+        return buffer.size () > pos;
       }
 
       @Override
       public ScreenPosition next ()
       {
-        return screenPositions[pos++];
+        return buffer.getScreenPositions ()[pos++];
       }
 
       @Override
@@ -9,6 +9,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.prefs.Preferences;
 
 import com.bytezone.dm3270.application.Console.Function;
@@ -47,14 +48,13 @@ public class Screen extends Canvas
 {
   private static final Toolkit defaultToolkit = Toolkit.getDefaultToolkit ();
   private static final boolean SHOW_CURSOR = true;
-  private static final boolean HIDE_CURSOR = false;
   private static final byte[] saveScreenReplyTypes =
       { Attribute.XA_HIGHLIGHTING, Attribute.XA_FGCOLOR, Attribute.XA_CHARSET,
         Attribute.XA_BGCOLOR, Attribute.XA_TRANSPARENCY };
 
   private final Function function;
 
-  private final ScreenPosition[] screenPositions;
+  private final ScreenBuffer screenBuffer;
   private final FieldManager fieldManager;
   private final FontManager fontManager;
   private final ContextManager contextManager;
@@ -83,10 +83,28 @@ public class Screen extends Canvas
   private byte[] replyTypes = new byte[0];
 
   private int insertedCursorPosition = -1;
-  private boolean keyboardLocked;
+  private volatile boolean keyboardLocked;      // read by the key handlers
   private boolean insertMode;
   private boolean readModifiedAll = false;
 
+  // The model (the ScreenBuffer, Cursor, FieldManager, Fields and HistoryManager) is
+  // changed by the session thread while it applies a batch of host records, and by the
+  // FX thread when the user types, uses the screen history or runs a plugin. Each of
+  // them holds modelLock while it does. It is always taken before drawLock.
+  private final ReentrantLock modelLock = new ReentrantLock ();
+
+  // Host commands are applied on the session thread (see ScreenUpdateQueue) with the
+  // drawing held, and only the JavaFX thread paints. At the end of each batch the
+  // session thread publishes a snapshot of the changed positions, which the FX thread
+  // paints before anything else. Everything below is guarded by drawLock.
+  private final Object drawLock = new Object ();
+  private boolean drawingHeld;
+  private boolean drawRequired;
+  private boolean eraseRequired;                  // the snapshot needs a black canvas
+  private ScreenBuffer pendingSnapshot;
+  private int pendingCursorLocation;
+  private boolean pendingErase;
+
   public enum BuildInstruction
   {
     BUILD_FIELDS, DONT_BUILD_FIELDS
@@ -126,8 +144,8 @@ public class Screen extends Canvas
 
     transfersStage.setTransferManager (transferManager);
 
-    screenPositions = new ScreenPosition[screenDimensions.size];
-    pen = Pen.getInstance (screenPositions, gc, contextManager, screenDimensions);
+    screenBuffer = new ScreenBuffer (screenDimensions, gc, contextManager);
+    pen = Pen.getInstance (screenBuffer, screenDimensions);
 
     screenPacker = new ScreenPacker (pen, fieldManager);
 
@@ -207,8 +225,11 @@ public class Screen extends Canvas
 
   public void setIsConsole ()
   {
-    consolePane.setIsConsole (true);
-    consoleLogStage.setConsoleLog (systemMessage.getConsoleLog ());
+    runOnFxThread ( () ->
+    {
+      consolePane.setIsConsole (true);
+      consoleLogStage.setConsoleLog (systemMessage.getConsoleLog ());
+    });
   }
 
   // called from the ConsolePane constructor
@@ -299,8 +320,7 @@ public class Screen extends Canvas
   // display a message on the screen - only used when logging off
   public void displayText (String text)
   {
-    gc.setFill (ColorAttribute.colors[8]);                // black
-    gc.fillRect (0, 0, getWidth (), getHeight ());
+    eraseScreen ();
     gc.setFill (ColorAttribute.colors[5]);                // turquoise
 
     int x = 120;
@@ -361,7 +381,7 @@ public class Screen extends Canvas
 
   public void buildFields (WriteControlCharacter wcc)
   {
-    fieldManager.buildFields (screenPositions);        // what about resetModified?
+    fieldManager.buildFields (screenBuffer);        // what about resetModified?
   }
 
   // called from WriteCommand.process()
@@ -381,18 +401,108 @@ public class Screen extends Canvas
   // called from Write.process()
   public void draw ()
   {
-    int max = getScreenDimensions ().size;
-    for (int i = 0; i < max; i++)
-      screenPositions[i].draw (HIDE_CURSOR);
+    synchronized (drawLock)
+    {
+      if (drawingHeld)
+      {
+        drawRequired = true;
+        return;
+      }
 
+      drawSnapshot ();
+
+      // only repaint the positions that have changed since they were last drawn
+      screenBuffer.drawChanged (getScreenDimensions ().size);
+      moveInsertedCursor ();
+      screenBuffer.draw (cursor.getLocation (), SHOW_CURSOR);
+    }
+  }
+
+  private void moveInsertedCursor ()
+  {
     if (insertedCursorPosition >= 0)
     {
       cursor.moveTo (insertedCursorPosition);
       insertedCursorPosition = -1;
       cursor.setVisible (true);
     }
+  }
+
+  // called from ScreenUpdateQueue.drain() on the session thread
+  // called from ConsoleKeyPress.handle() and ConsoleKeyEvent.handle()
+  // called from ConsolePane.sendAID() and ConsolePane.toggleHistory()
+  // called from PluginsStage.processPluginRequest()
+  // called from this.fontChanged()
+  public void lockModel ()
+  {
+    modelLock.lock ();
+  }
+
+  public void unlockModel ()
+  {
+    modelLock.unlock ();
+  }
+
+  // called from ScreenUpdateQueue.drain() on the session thread before processing a
+  // batch of records, so that only the final state of the screen is drawn
+  public void holdDrawing ()
+  {
+    synchronized (drawLock)
+    {
+      drawingHeld = true;
+    }
+  }
 
-    screenPositions[cursor.getLocation ()].draw (SHOW_CURSOR);
+  // called from ScreenUpdateQueue.drain() on the session thread after processing a
+  // batch of records - hands the changes to the FX thread
+  public void releaseDrawing ()
+  {
+    synchronized (drawLock)
+    {
+      if (drawRequired)
+      {
+        drawRequired = false;
+        moveInsertedCursor ();                  // still held, so it only marks positions
+
+        if (eraseRequired)
+        {
+          eraseRequired = false;
+          pendingErase = true;
+          screenBuffer.setAllChanged ();
+        }
+
+        if (pendingSnapshot == null)
+          Platform.runLater (this::drawSnapshot);
+
+        // any snapshot that hasn't been painted yet is merged into this one
+        pendingSnapshot = screenBuffer.snapshot (pendingSnapshot);
+        pendingCursorLocation = cursor.getLocation ();
+      }
+      drawingHeld = false;
+    }
+  }
+
+  // paints the newest snapshot, if there is one - always on the FX thread
+  private void drawSnapshot ()
+  {
+    ScreenBuffer snapshot;
+    synchronized (drawLock)
+    {
+      snapshot = pendingSnapshot;
+      if (snapshot == null)
+        return;
+      pendingSnapshot = null;
+
+      if (pendingErase)
+      {
+        pendingErase = false;
+        gc.setFill (ColorAttribute.colors[8]);           // black
+        gc.fillRect (0, 0, getWidth (), getHeight ());
+      }
+    }
+
+    snapshot.drawChanged (snapshot.getScreenDimensions ().size);
+    snapshot.draw (pendingCursorLocation, SHOW_CURSOR);
   }
 
   // called from Field.draw()
@@ -404,12 +514,38 @@ public class Screen extends Canvas
   // called from Cursor.moveTo()
   void drawPosition (int position, boolean hasCursor)
   {
-    screenPositions[position].draw (hasCursor);
+    synchronized (drawLock)
+    {
+      if (drawingHeld)
+      {
+        if (Platform.isFxApplicationThread ())
+          Platform.runLater ( () -> drawPosition (position, hasCursor));  // try later
+        else
+          screenBuffer.markChanged (position);      // it will be in the snapshot
+        return;
+      }
+
+      drawSnapshot ();
+      screenBuffer.draw (position, hasCursor);
+    }
   }
 
   // called from FontManager() before we are fully initialised
   // called from FontManager.setFont()
   void fontChanged (FontDetails fontDetails)
+  {
+    lockModel ();
+    try
+    {
+      changeFont (fontDetails);
+    }
+    finally
+    {
+      unlockModel ();
+    }
+  }
+
+  private void changeFont (FontDetails fontDetails)
   {
     contextManager.setFontDetails (fontDetails);
 
@@ -424,7 +560,7 @@ public class Screen extends Canvas
     if (consolePane != null)
       consolePane.setStatusFont ();
 
-    if (screenPositions != null)
+    if (screenBuffer != null)
     {
       ((Stage) getScene ().getWindow ()).sizeToScene ();
       eraseScreen ();
@@ -434,8 +570,19 @@ public class Screen extends Canvas
 
   void eraseScreen ()
   {
-    gc.setFill (ColorAttribute.colors[8]);             // black
-    gc.fillRect (0, 0, getWidth (), getHeight ());
+    synchronized (drawLock)
+    {
+      if (drawingHeld)                    // the next snapshot will be drawn on black
+      {
+        eraseRequired = true;
+        drawRequired = true;
+        return;
+      }
+
+      gc.setFill (ColorAttribute.colors[8]);           // black
+      gc.fillRect (0, 0, getWidth (), getHeight ());
+      screenBuffer.setAllChanged ();                   // everything must be redrawn
+    }
   }
 
   // called from Cursor.home()
@@ -560,13 +707,13 @@ public class Screen extends Canvas
   @Override
   public ScreenPosition getScreenPosition (int position)
   {
-    return screenPositions[position];
+    return screenBuffer.getScreenPositions ()[position];
   }
 
   @Override
   public ScreenPosition[] getScreenPositions ()
   {
-    return screenPositions;
+    return screenBuffer.getScreenPositions ();
   }
 
   @Override
@@ -690,7 +837,18 @@ public class Screen extends Canvas
   {
     KeyboardStatusChangedEvent evt =
         new KeyboardStatusChangedEvent (insertMode, keyboardLocked, keyName);
-    keyboardChangeListeners.forEach (l -> l.keyboardStatusChanged (evt));
+    runOnFxThread ( () -> keyboardChangeListeners
+        .forEach (l -> l.keyboardStatusChanged (evt)));
+  }
+
+  // Listeners update the GUI, so they are always told on the FX thread. Host commands
+  // are processed on the session thread.
+  public static void runOnFxThread (Runnable task)
+  {
+    if (Platform.isFxApplicationThread ())
+      task.run ();
+    else
+      Platform.runLater (task);
   }
 
   public void addKeyboardStatusChangeListener (KeyboardStatusListener listener)
@@ -0,0 +1,595 @@
+package com.bytezone.dm3270.display;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.bytezone.dm3270.attributes.Attribute;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.utilities.Dm3270Utility;
+
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+// The contents of a screen, kept in parallel arrays indexed by screen position rather
+// than in an object (and an attribute list) for each position. The character, its
+// flags, the field's StartFieldAttribute (only at the start of a field), the id of
+// the position's extended attributes and the id of its ScreenContext are all that a
+// position needs. Sets of extended attributes are shared - each distinct set is kept
+// once, and only until the screen is cleared. ScreenPositions are still available,
+// but they are just views of one position in this buffer.
+//
+// Every change that would look different on the screen marks the position as changed,
+// and Screen.draw() only repaints those positions. Drawing a position clears its mark.
+// Clearing the buffer, or anything else that wipes the canvas, marks every position.
+//
+// Separately it notes the positions whose extended attributes have changed, or which
+// have lost the hidden flag that their field gave them, and whether any character has
+// changed, so that FieldManager only has to redo the fields that contain them.
+
+public final class ScreenBuffer
+{
+  // screen display characters
+  private static final String[] charString = new String[256];
+
+  private static final byte GRAPHICS = 0x01;
+  private static final byte HIDDEN = 0x02;
+  private static final int MAX_INTERNED = 4;      // attributes in a set's key
+
+  private final GraphicsContext gc;
+  private final GlyphCache glyphCache;              // null when there is no gc
+  private final ContextManager contextManager;
+  private ScreenDimensions screenDimensions;
+
+  private final byte[] chars;
+  private final byte[] flags;
+  private final StartFieldAttribute[] startFields;
+  private final short[] attributeIds;             // index into attributeSets
+  private final short[] contextIds;               // ScreenContext.id
+  private final BitSet changed;                   // positions that need repainting
+  private final BitSet fieldChanges;              // positions that need their context
+  private boolean contentChanged;                 // since the fields were built
+
+  private final List<List<Attribute>> attributeSets = new ArrayList<> ();
+  private final Map<Long, Short> attributeSetIds = new HashMap<> ();
+
+  private final ScreenPosition[] screenPositions;
+  private final StringBuilder runText = new StringBuilder ();
+
+  static
+  {
+    // build strings to use in the screen-drawing routine
+    String space = " ";
+    for (int i = 0; i < 33; i++)
+      charString[i] = space;
+    for (int i = 33; i < 256; i++)
+      charString[i] = (char) i + "";
+  }
+
+  // created by Screen, HistoryScreen and HeadlessScreen, which has no gc
+  ScreenBuffer (ScreenDimensions screenDimensions, GraphicsContext gc,
+      ContextManager contextManager)
+  {
+    this.screenDimensions = screenDimensions;
+    this.gc = gc;
+    glyphCache = gc == null ? null : new GlyphCache ();
+    this.contextManager = contextManager;
+
+    int size = screenDimensions.size;
+    chars = new byte[size];
+    flags = new byte[size];
+    startFields = new StartFieldAttribute[size];
+    attributeIds = new short[size];
+    contextIds = new short[size];
+    changed = new BitSet (size);
+    fieldChanges = new BitSet (size);
+
+    Arrays.fill (contextIds, (short) contextManager.getDefaultScreenContext ().id);
+    attributeSets.add (Collections.emptyList ());             // id 0
+
+    screenPositions = new ScreenPosition[size];
+    for (int i = 0; i < size; i++)
+      screenPositions[i] = new ScreenPosition (this, i);
+
+    changed.set (0, size);
+  }
+
+  // A copy for the FX thread to paint, taken by the session thread at the end of a
+  // batch. The changed positions move to the copy, along with those of any previous
+  // snapshot that hasn't been painted yet. Nothing changes a snapshot except painting
+  // it, and it has no ScreenPositions.
+  private ScreenBuffer (ScreenBuffer buffer, ScreenBuffer previous)
+  {
+    gc = buffer.gc;
+    glyphCache = buffer.glyphCache;               // only used on the FX thread
+    contextManager = buffer.contextManager;
+    screenDimensions = buffer.screenDimensions;
+
+    chars = buffer.chars.clone ();
+    flags = buffer.flags.clone ();
+    startFields = buffer.startFields.clone ();
+    attributeIds = buffer.attributeIds.clone ();
+    contextIds = buffer.contextIds.clone ();
+    attributeSets.addAll (buffer.attributeSets);
+    screenPositions = null;
+
+    changed = (BitSet) buffer.changed.clone ();
+    if (previous != null)
+      changed.or (previous.changed);
+    fieldChanges = new BitSet ();                 // only the live buffer has fields
+  }
+
+  // called from Screen.releaseDrawing()
+  ScreenBuffer snapshot (ScreenBuffer previous)
+  {
+    ScreenBuffer snapshot = new ScreenBuffer (this, previous);
+    changed.clear ();
+    return snapshot;
+  }
+
+  int size ()
+  {
+    return chars.length;
+  }
+
+  ScreenPosition[] getScreenPositions ()
+  {
+    return screenPositions;
+  }
+
+  void setScreenDimensions (ScreenDimensions screenDimensions)
+  {
+    this.screenDimensions = screenDimensions;
+    changed.set (0, size ());
+  }
+
+  ScreenDimensions getScreenDimensions ()
+  {
+    return screenDimensions;
+  }
+
+  // called from Pen.clearScreen() - each position keeps its ScreenContext
+  void clear ()
+  {
+    Arrays.fill (chars, (byte) 0);
+    Arrays.fill (flags, (byte) 0);
+    Arrays.fill (startFields, null);
+    Arrays.fill (attributeIds, (short) 0);
+
+    // nothing refers to the attribute sets any more
+    attributeSets.subList (1, attributeSets.size ()).clear ();
+    attributeSetIds.clear ();
+
+    changed.set (0, size ());
+    fieldChanges.set (0, size ());
+    contentChanged = true;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Changed positions
+  // ---------------------------------------------------------------------------------//
+
+  // called from Screen.eraseScreen() and Screen.releaseDrawing()
+  // called from HistoryScreen.drawScreen()
+  void setAllChanged ()
+  {
+    changed.set (0, size ());
+  }
+
+  // called from Screen.drawPosition() while the drawing is held
+  void markChanged (int position)
+  {
+    changed.set (position);
+  }
+
+  // called from HeadlessScreen.getChangedPositions()
+  int totalChanged ()
+  {
+    return changed.cardinality ();
+  }
+
+  // called from HeadlessScreen.getChangedPositions(), which never draws
+  void clearChanged ()
+  {
+    changed.clear ();
+  }
+
+  // called from FieldManager.buildFields()
+  BitSet getFieldChanges ()
+  {
+    return fieldChanges;
+  }
+
+  // called from FieldManager.buildFields()
+  boolean isContentChanged ()
+  {
+    return contentChanged;
+  }
+
+  // called from FieldManager.buildFields() once the fields match the buffer
+  void clearFieldChanges ()
+  {
+    fieldChanges.clear ();
+    contentChanged = false;
+  }
+
+  // the position's attributes or hidden flag are about to be lost
+  private void checkFieldChange (int position)
+  {
+    if (attributeIds[position] != 0 || (flags[position] & HIDDEN) != 0)
+      fieldChanges.set (position);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Contents
+  // ---------------------------------------------------------------------------------//
+
+  // called from Pen.startField()
+  void reset (int position)
+  {
+    if (chars[position] != 0 || flags[position] != 0 || startFields[position] != null)
+    {
+      changed.set (position);
+      contentChanged = true;
+    }
+    checkFieldChange (position);
+
+    chars[position] = 0;
+    flags[position] = 0;
+    startFields[position] = null;
+    attributeIds[position] = 0;
+  }
+
+  // called from Pen.write() - the same as reset() followed by setChar()
+  void write (int position, byte value)
+  {
+    replace (position, value, (byte) 0);
+  }
+
+  // called from Pen.writeGraphics()
+  void writeGraphics (int position, byte value)
+  {
+    replace (position, value, GRAPHICS);
+  }
+
+  private void replace (int position, byte value, byte newFlags)
+  {
+    if (chars[position] != value || flags[position] != newFlags
+        || startFields[position] != null)
+    {
+      changed.set (position);
+      contentChanged = true;
+    }
+    checkFieldChange (position);
+
+    chars[position] = value;
+    flags[position] = newFlags;
+    startFields[position] = null;
+    attributeIds[position] = 0;
+  }
+
+  void setChar (int position, byte value)
+  {
+    if (chars[position] != value || (flags[position] & GRAPHICS) != 0)
+    {
+      changed.set (position);
+      contentChanged = true;
+    }
+
+    chars[position] = value;
+    flags[position] &= ~GRAPHICS;
+  }
+
+  byte getByte (int position)
+  {
+    return chars[position];
+  }
+
+  boolean isNull (int position)
+  {
+    return chars[position] == 0;
+  }
+
+  boolean isGraphicsChar (int position)
+  {
+    return (flags[position] & GRAPHICS) != 0;
+  }
+
+  // Password fields etc
+  void setVisible (int position, boolean visible)
+  {
+    if (visible != isVisible (position))
+      changed.set (position);
+
+    if (visible)
+      flags[position] &= ~HIDDEN;
+    else
+      flags[position] |= HIDDEN;
+  }
+
+  boolean isVisible (int position)
+  {
+    return (flags[position] & HIDDEN) == 0;
+  }
+
+  StartFieldAttribute getStartFieldAttribute (int position)
+  {
+    return startFields[position];
+  }
+
+  boolean isStartField (int position)
+  {
+    return startFields[position] != null;
+  }
+
+  void setStartField (int position, StartFieldAttribute startFieldAttribute)
+  {
+    if ((startFieldAttribute == null) != (startFields[position] == null))
+      changed.set (position);
+    if (startFieldAttribute != startFields[position])
+      contentChanged = true;
+
+    if (startFieldAttribute == null)
+    {
+      setVisible (position, true);
+      if (startFields[position] != null)
+      {
+        checkFieldChange (position);
+        attributeIds[position] = 0;
+      }
+    }
+    startFields[position] = startFieldAttribute;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Extended attributes
+  // ---------------------------------------------------------------------------------//
+
+  List<Attribute> getAttributes (int position)
+  {
+    return attributeSets.get (attributeIds[position]);
+  }
+
+  // called from Pen.moveRight() and Pen.moveTo() with its pending attributes
+  void addAttributes (int position, List<Attribute> attributes)
+  {
+    List<Attribute> current = getAttributes (position);
+    List<Attribute> combined = new ArrayList<> (current.size () + attributes.size ());
+    combined.addAll (current);
+    combined.addAll (attributes);
+    attributeIds[position] = getAttributeSetId (combined);
+    fieldChanges.set (position);
+  }
+
+  // called by Field when deleting a character
+  void clearAttributes (int position)
+  {
+    checkFieldChange (position);
+    attributeIds[position] = 0;
+  }
+
+  private short getAttributeSetId (List<Attribute> attributes)
+  {
+    long key = getKey (attributes);
+    if (key >= 0)
+    {
+      Short id = attributeSetIds.get (key);
+      if (id != null)
+        return id;
+    }
+
+    if (attributeSets.size () > Short.MAX_VALUE)
+      throw new IllegalStateException ("Too many attribute sets");
+
+    short id = (short) attributeSets.size ();
+    attributeSets.add (Collections.unmodifiableList (attributes));
+    if (key >= 0)
+      attributeSetIds.put (key, id);
+
+    return id;
+  }
+
+  // up to four code/value pairs, or -1 if there are too many to pack into a long
+  private long getKey (List<Attribute> attributes)
+  {
+    if (attributes.size () > MAX_INTERNED)
+      return -1;
+
+    long key = attributes.size ();
+    for (Attribute attribute : attributes)
+      key = key << 16 | (attribute.getAttributeCode () & 0xFF) << 8
+          | (attribute.getAttributeValue () & 0xFF);
+
+    return key & Long.MAX_VALUE;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Screen contexts
+  // ---------------------------------------------------------------------------------//
+
+  // All the colour and highlight options
+  void setScreenContext (int position, ScreenContext screenContext)
+  {
+    if (screenContext == null)
+      throw new IllegalArgumentException ("ScreenContext cannot be null");
+
+    if (contextIds[position] != screenContext.id)
+    {
+      contextIds[position] = (short) screenContext.id;
+      changed.set (position);
+    }
+  }
+
+  ScreenContext getScreenContext (int position)
+  {
+    return contextManager.getScreenContext (contextIds[position]);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Characters
+  // ---------------------------------------------------------------------------------//
+
+  // used by Field.getText()
+  char getChar (int position)
+  {
+    byte value = chars[position];
+    if ((value & 0xC0) == 0)
+      return ' ';
+
+    if (isGraphicsChar (position))
+      switch (value)
+      {
+        case ScreenPosition.HORIZONTAL_LINE:
+          return '-';
+        case ScreenPosition.VERTICAL_LINE:
+          return '|';
+        default:
+          return '*';
+      }
+
+    return (char) Dm3270Utility.ebc2asc[value & 0xFF];
+  }
+
+  String getCharString (int position)
+  {
+    if (isStartField (position))
+      return " ";
+
+    byte value = chars[position];
+    if (isGraphicsChar (position))
+      switch (value)
+      {
+        case ScreenPosition.HORIZONTAL_LINE:
+          return "-";
+        case ScreenPosition.VERTICAL_LINE:
+          return "|";
+        case ScreenPosition.TOP_LEFT:
+        case ScreenPosition.TOP_RIGHT:
+        case ScreenPosition.BOTTOM_LEFT:
+        case ScreenPosition.BOTTOM_RIGHT:
+          return "*";
+        default:
+          return ".";
+      }
+
+    return charString[Dm3270Utility.ebc2asc[value & 0xFF]];
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Drawing
+  // ---------------------------------------------------------------------------------//
+
+  // Paints the changed positions before max. Neighbouring positions in a row that look
+  // the same are painted as a run, with one background and one string, if the font
+  // allows it. Everything else is copied from the GlyphCache one position at a time.
+  // called by Screen.draw()
+  // called by HistoryScreen.drawScreen()
+  void drawChanged (int max)
+  {
+    int position = changed.nextSetBit (0);
+    while (position >= 0 && position < max)
+    {
+      int end = getRunEnd (position, max);
+      if (end - position == 1)
+        draw (position, false);
+      else
+        drawRun (position, end);
+      position = changed.nextSetBit (end);
+    }
+  }
+
+  // the first position after the run that starts here
+  private int getRunEnd (int position, int max)
+  {
+    int end = position + 1;
+    if (isGraphicsChar (position))
+      return end;
+
+    // a string would not line up with the cells
+    if (isVisible (position) && !getScreenContext (position).fontDetails.alignedText)
+      return end;
+
+    int columns = screenDimensions.columns;
+    while (end < max && end % columns != 0 && changed.get (end)
+        && contextIds[end] == contextIds[position] && !isGraphicsChar (end)
+        && isVisible (end) == isVisible (position))
+      end++;
+
+    return end;
+  }
+
+  // the same as draw() without the cursor, for each position from first to last - 1
+  private void drawRun (int first, int last)
+  {
+    changed.clear (first, last);
+
+    ScreenContext screenContext = getScreenContext (first);
+    FontDetails fontDetails = screenContext.fontDetails;
+    boolean isVisible = isVisible (first);
+
+    double x = 4 + first % screenDimensions.columns * fontDetails.width;
+    double y = 4 + first / screenDimensions.columns * fontDetails.height;
+    double width = (last - first) * fontDetails.width;
+
+    // Draw background
+    gc.setFill (isVisible && screenContext.reverseVideo ? screenContext.foregroundColor
+        : screenContext.backgroundColor);
+    gc.fillRect (x, y, width, fontDetails.height);
+
+    if (!isVisible)
+      return;
+
+    // Draw foreground
+    Color foreground = screenContext.reverseVideo ? screenContext.backgroundColor
+        : screenContext.foregroundColor;
+    gc.setFill (foreground);
+
+    runText.setLength (0);
+    for (int position = first; position < last; position++)
+      runText.append (getCharString (position));
+    gc.fillText (runText.toString (), x, y + fontDetails.ascent);
+
+    if (screenContext.underscore)
+    {
+      gc.setStroke (foreground);
+      x += 0.5;     // stroke commands need to be offset for Windows
+      y += 0.5;
+      double y2 = y + fontDetails.height - 1;
+      gc.strokeLine (x, y2, x + width, y2);
+    }
+  }
+
+  // called by Screen.draw() for the cursor
+  // called by Screen.drawPosition()
+  void draw (int position, boolean hasCursor)
+  {
+    changed.clear (position);
+
+    ScreenContext screenContext = getScreenContext (position);
+    FontDetails fontDetails = screenContext.fontDetails;
+
+    double x = 4 + position % screenDimensions.columns * fontDetails.width;
+    double y = 4 + position / screenDimensions.columns * fontDetails.height;
+
+    glyphCache.draw (gc, x, y, screenContext, getCharString (position), chars[position],
+                     isGraphicsChar (position), isVisible (position), hasCursor);
+  }
+
+  String toString (int position)
+  {
+    StringBuilder text = new StringBuilder ();
+    if (isStartField (position))
+      text.append (".." + startFields[position]);
+    else
+      for (Attribute attribute : getAttributes (position))
+        text.append ("--" + attribute);
+
+    text.append (", byte: " + getCharString (position));
+
+    return text.toString ();
+  }
+}
@@ -16,6 +16,7 @@ public class ScreenContext
   final public boolean blink;
 
   FontDetails fontDetails;
+  int id;                   // index in the ContextManager's pool, see ScreenBuffer
 
   public ScreenContext (Color foregroundColor, Color backgroundColor, byte highlight,
       boolean highIntensity, FontDetails fontDetails)
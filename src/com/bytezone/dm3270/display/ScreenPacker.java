@@ -59,7 +59,8 @@ class ScreenPacker implements ScreenChangeListener
     for (Field field : fieldManager.getUnprotectedFields ())
       if (field.isModified ())
       {
-        ptr = packField (field, buffer, ptr);
+        ptr = packField (pen.getScreenBuffer (), field.getStartPosition (),
+                         field.getEndPosition (), field.getFirstLocation (), buffer, ptr);
         if (field == tsoCommandField)
         {
           addTSOCommand (field.getText ().trim ());
@@ -77,19 +78,27 @@ class ScreenPacker implements ScreenChangeListener
     return new AIDCommand (buffer, 0, ptr);
   }
 
-  private int packField (Field field, byte[] buffer, int ptr)
+  // also called from HeadlessScreen.readModifiedFields()
+  static int packField (ScreenBuffer screenBuffer, int start, int end,
+      int firstLocation, byte[] buffer, int ptr)
   {
-    assert field.isModified ();
-
-    for (ScreenPosition sp : field)
-      if (sp.isStartField ())
+    int position = start;
+    while (true)
+    {
+      if (screenBuffer.isStartField (position))
       {
         buffer[ptr++] = Order.SET_BUFFER_ADDRESS;
-        BufferAddress ba = new BufferAddress (field.getFirstLocation ());
+        BufferAddress ba = new BufferAddress (firstLocation);
         ptr = ba.packAddress (buffer, ptr);
       }
-      else if (!sp.isNull ())
-        buffer[ptr++] = sp.getByte ();                  // suppress nulls
+      else if (!screenBuffer.isNull (position))
+        buffer[ptr++] = screenBuffer.getByte (position);    // suppress nulls
+
+      if (position == end)
+        break;
+      if (++position == screenBuffer.size ())             // wrap around
+        position = 0;
+    }
 
     return ptr;
   }
@@ -106,22 +115,23 @@ class ScreenPacker implements ScreenChangeListener
     ptr = ba.packAddress (buffer, ptr);
 
     // pack every screen location
-    for (ScreenPosition sp : pen)
-      if (sp.isStartField ())
-        ptr = packStartPosition (sp, buffer, ptr, replyMode);
+    ScreenBuffer screenBuffer = pen.getScreenBuffer ();
+    for (int i = 0; i < screenBuffer.size (); i++)
+      if (screenBuffer.isStartField (i))
+        ptr = packStartPosition (screenBuffer, i, buffer, ptr, replyMode);
       else
         // don't suppress nulls
-        ptr = packDataPosition (sp, buffer, ptr, replyMode, replyTypes);
+        ptr = packDataPosition (screenBuffer, i, buffer, ptr, replyMode, replyTypes);
 
     return new AIDCommand (buffer, 0, ptr);
   }
 
-  private int packStartPosition (ScreenPosition sp, byte[] buffer, int ptr,
-      byte replyMode)
+  private int packStartPosition (ScreenBuffer screenBuffer, int position, byte[] buffer,
+      int ptr, byte replyMode)
   {
-    assert sp.isStartField ();
+    assert screenBuffer.isStartField (position);
 
-    StartFieldAttribute sfa = sp.getStartFieldAttribute ();
+    StartFieldAttribute sfa = screenBuffer.getStartFieldAttribute (position);
 
     if (replyMode == SetReplyModeSF.RM_FIELD)
     {
@@ -132,7 +142,7 @@ class ScreenPacker implements ScreenChangeListener
     {
       buffer[ptr++] = Order.START_FIELD_EXTENDED;
 
-      List<Attribute> attributes = sp.getAttributes ();
+      List<Attribute> attributes = screenBuffer.getAttributes (position);
       buffer[ptr++] = (byte) (attributes.size () + 1);    // +1 for StartFieldAttribute
 
       ptr = sfa.pack (buffer, ptr);                       // pack the SFA first
@@ -143,11 +153,11 @@ class ScreenPacker implements ScreenChangeListener
     return ptr;
   }
 
-  private int packDataPosition (ScreenPosition sp, byte[] buffer, int ptr, byte replyMode,
-      byte[] replyTypes)
+  private int packDataPosition (ScreenBuffer screenBuffer, int position, byte[] buffer,
+      int ptr, byte replyMode, byte[] replyTypes)
   {
     if (replyMode == SetReplyModeSF.RM_CHARACTER)
-      for (Attribute attribute : sp.getAttributes ())
+      for (Attribute attribute : screenBuffer.getAttributes (position))
         if (attribute.getAttributeType () == AttributeType.RESET)
         {
           buffer[ptr++] = Order.SET_ATTRIBUTE;
@@ -162,10 +172,10 @@ class ScreenPacker implements ScreenChangeListener
               break;
             }
 
-    if (sp.isGraphicsChar () && replyMode != SetReplyModeSF.RM_FIELD)
+    if (screenBuffer.isGraphicsChar (position) && replyMode != SetReplyModeSF.RM_FIELD)
       buffer[ptr++] = Order.GRAPHICS_ESCAPE;
 
-    buffer[ptr++] = sp.getByte ();
+    buffer[ptr++] = screenBuffer.getByte (position);
 
     return ptr;
   }
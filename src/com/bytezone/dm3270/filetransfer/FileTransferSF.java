@@ -22,6 +22,7 @@ public class FileTransferSF extends StructuredField
   public FileTransferSF (byte[] buffer, int offset, int length, String direction)
   {
     super (buffer, offset, length);
+    getData ();                 // the transfer records are parsed from their own copy
 
     assert data[0] == (byte) 0xD0;
 
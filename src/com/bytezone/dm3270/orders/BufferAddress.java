@@ -36,19 +36,16 @@ public class BufferAddress
   {
     this.b1 = b1;
     this.b2 = b2;
-    int flag = b1 & 0xC0;       // top two bits
-    isValid = (flag != 0x80);
+    isValid = (b1 & 0xC0) != 0x80;      // top two bits
+    location = toLocation (b1, b2);
+  }
 
-    if (flag == 0)              // using 14-bit method
-    {
-      location = (b1 & 0x3F) << 8;
-      location |= (b2 & 0xFF);
-    }
-    else
-    {
-      location = (b1 & 0x3F) << 6;
-      location |= (b2 & 0x3F);
-    }
+  // used by OrderStream to decode addresses without creating a BufferAddress
+  public static int toLocation (byte b1, byte b2)
+  {
+    if ((b1 & 0xC0) == 0)               // using 14-bit method
+      return (b1 & 0x3F) << 8 | (b2 & 0xFF);
+    return (b1 & 0x3F) << 6 | (b2 & 0x3F);
   }
 
   public boolean isValid ()
@@ -34,6 +34,27 @@ public abstract class Order
         FCO_FORM_FEED, FCO_CARRIAGE_RETURN, FCO_NEWLINE, FCO_END_OF_MEDIUM,
         FCO_EIGHT_ONES };
 
+  // The length of the order that each byte value begins, indexed by (value & 0xFF).
+  // Zero means the byte is text, and the orders whose length depends on the bytes that
+  // follow them (SFE, MF and RA) are VARIABLE_LENGTH.
+  static final byte[] orderLengths = new byte[256];
+  static final byte VARIABLE_LENGTH = -1;
+
+  static
+  {
+    for (byte value : orderValues)
+      orderLengths[value & 0xFF] = 1;             // IC, PT and the FCOs
+
+    orderLengths[START_FIELD] = 2;
+    orderLengths[GRAPHICS_ESCAPE] = 2;
+    orderLengths[SET_BUFFER_ADDRESS] = 3;
+    orderLengths[ERASE_UNPROTECTED] = 3;
+    orderLengths[SET_ATTRIBUTE] = 3;
+    orderLengths[START_FIELD_EXTENDED] = VARIABLE_LENGTH;
+    orderLengths[MODIFY_FIELD] = VARIABLE_LENGTH;
+    orderLengths[REPEAT_TO_ADDRESS] = VARIABLE_LENGTH;
+  }
+
   protected boolean rejected;
 
   protected byte[] buffer;
@@ -0,0 +1,288 @@
+package com.bytezone.dm3270.orders;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import com.bytezone.dm3270.attributes.Attribute;
+import com.bytezone.dm3270.attributes.StartFieldAttribute;
+import com.bytezone.dm3270.display.DisplayScreen;
+import com.bytezone.dm3270.display.Pen;
+import com.bytezone.dm3270.utilities.Dm3270Utility;
+
+// The orders in a Write command, decoded in a single pass into parallel arrays. Every
+// byte is classified with Order.orderLengths, so a run of text is found without
+// comparing each byte against the list of order values, and nothing is created for
+// each order. Repeated GEs and FCOs are collapsed into one entry, just as the Order
+// list has always done it. In TERMINAL mode process() applies the orders straight to
+// the Pen, and the Order objects are only built when somebody asks for the list, which
+// is when a Write is shown in the spy or replay windows.
+
+public class OrderStream
+{
+  private static final int INITIAL_SIZE = 32;
+
+  private final byte[] record;
+
+  private byte[] types = new byte[INITIAL_SIZE];    // the order's first byte
+  private int[] offsets = new int[INITIAL_SIZE];    // where the order starts in record
+  private int[] lengths = new int[INITIAL_SIZE];
+  private int[] addresses = new int[INITIAL_SIZE];  // for SBA, RA and EUA, else -1
+  private int[] repeats = new int[INITIAL_SIZE];    // duplicate GEs and FCOs
+  private int size;
+
+  // The record must not change while this object is alive, it is the record that the
+  // WriteCommand owns or is a view of.
+  public OrderStream (byte[] record, int offset, int max)
+  {
+    this.record = record;
+
+    int ptr = offset;
+    while (ptr < max)
+    {
+      byte type = record[ptr];
+      int length = Order.orderLengths[type & 0xFF];
+
+      if (length == 0)                                  // text
+      {
+        int end = ptr + 1;
+        while (end < max && Order.orderLengths[record[end] & 0xFF] == 0)
+          end++;
+        length = end - ptr;
+      }
+      else if (length == Order.VARIABLE_LENGTH && ptr + 1 < max)
+        length = type == Order.REPEAT_TO_ADDRESS
+            ? ptr + 3 < max && record[ptr + 3] == Order.GRAPHICS_ESCAPE ? 6 : 4
+            : (record[ptr + 1] & 0xFF) * 2 + 2;       // SFE and MF attribute pairs
+
+      if (length < 0 || ptr + length > max)
+      {
+        System.out.printf ("Order %02X truncated at %d%n", type, ptr - offset);
+        break;
+      }
+
+      if (repeatsPrevious (type, ptr))
+      {
+        ++repeats[size - 1];
+        ptr += length;
+        continue;
+      }
+
+      int address = -1;
+      if (type == Order.SET_BUFFER_ADDRESS || type == Order.REPEAT_TO_ADDRESS
+          || type == Order.ERASE_UNPROTECTED)
+        address = BufferAddress.toLocation (record[ptr + 1], record[ptr + 2]);
+
+      add (type, ptr, length, address);
+      ptr += length;
+    }
+  }
+
+  // a GE with the same code, or the same FCO, as the entry before it
+  private boolean repeatsPrevious (byte type, int ptr)
+  {
+    if (size == 0 || types[size - 1] != type)
+      return false;
+
+    if (type == Order.GRAPHICS_ESCAPE)
+      return record[offsets[size - 1] + 1] == record[ptr + 1];
+
+    return Order.orderLengths[type & 0xFF] == 1 && type != Order.INSERT_CURSOR
+        && type != Order.PROGRAM_TAB;
+  }
+
+  private void add (byte type, int offset, int length, int address)
+  {
+    if (size == types.length)
+    {
+      int newSize = size * 2;
+      types = Arrays.copyOf (types, newSize);
+      offsets = Arrays.copyOf (offsets, newSize);
+      lengths = Arrays.copyOf (lengths, newSize);
+      addresses = Arrays.copyOf (addresses, newSize);
+      repeats = Arrays.copyOf (repeats, newSize);
+    }
+
+    types[size] = type;
+    offsets[size] = offset;
+    lengths[size] = length;
+    addresses[size] = address;
+    repeats[size] = 0;
+    ++size;
+  }
+
+  public int size ()
+  {
+    return size;
+  }
+
+  public byte[] getRecord ()
+  {
+    return record;
+  }
+
+  public byte getType (int index)
+  {
+    return types[index];
+  }
+
+  public boolean isText (int index)
+  {
+    return Order.orderLengths[types[index] & 0xFF] == 0;
+  }
+
+  public int getOffset (int index)
+  {
+    return offsets[index];
+  }
+
+  public int getLength (int index)
+  {
+    return lengths[index];
+  }
+
+  public int getAddress (int index)
+  {
+    return addresses[index];
+  }
+
+  public int getRepeats (int index)
+  {
+    return repeats[index];
+  }
+
+  // the bytes of the order (without its repeats) as text - used by SystemMessage
+  public String getText (int index)
+  {
+    return Dm3270Utility.getString (record, offsets[index], lengths[index]);
+  }
+
+  // Builds the orders the way WriteCommand always has, one Order for each entry.
+  public List<Order> getOrders ()
+  {
+    List<Order> orders = new ArrayList<> (size);
+    Order previousOrder = null;
+
+    for (int i = 0; i < size; i++)
+    {
+      Order order = Order.getOrder (record, offsets[i], offsets[i] + lengths[i]);
+      order.matchesPreviousOrder (previousOrder);   // a PT needs to know what preceded it
+      for (int j = 0; j < repeats[i]; j++)
+        order.incrementDuplicates ();
+
+      orders.add (order);
+      previousOrder = order;
+    }
+
+    return orders;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Does what each Order's process() would do, without creating the Orders
+  // ---------------------------------------------------------------------------------//
+
+  public void process (DisplayScreen screen)
+  {
+    Pen pen = screen.getPen ();
+
+    for (int i = 0; i < size; i++)
+    {
+      int ptr = offsets[i];
+      byte type = types[i];
+
+      if (Order.orderLengths[type & 0xFF] == 0)
+      {
+        int max = ptr + lengths[i];
+        while (ptr < max)
+          pen.write (record[ptr++]);
+        continue;
+      }
+
+      switch (type)
+      {
+        case Order.START_FIELD:
+          pen.startField (new StartFieldAttribute (record[ptr + 1]));
+          pen.moveRight ();
+          break;
+
+        case Order.START_FIELD_EXTENDED:
+          startFieldExtended (pen, ptr);
+          break;
+
+        case Order.SET_BUFFER_ADDRESS:
+          pen.moveTo (addresses[i]);
+          break;
+
+        case Order.SET_ATTRIBUTE:
+          Attribute.getAttribute (record[ptr + 1], record[ptr + 2])
+              .ifPresent (pen::addAttribute);
+          break;
+
+        case Order.INSERT_CURSOR:
+          screen.insertCursor (pen.getPosition ());
+          break;
+
+        case Order.PROGRAM_TAB:
+          // if the previous data was text then erase the remainder of the field
+          if (i > 0 && Order.orderLengths[types[i - 1] & 0xFF] == 0)
+            pen.eraseEOF ();
+          pen.tab ();
+          break;
+
+        case Order.REPEAT_TO_ADDRESS:
+          byte rptChar = lengths[i] == 6 ? record[ptr + 4] : record[ptr + 3];
+          if (pen.getPosition () == addresses[i])
+            screen.clearScreen ();
+          else
+            while (pen.getPosition () != addresses[i])
+              pen.write (rptChar);
+          break;
+
+        case Order.GRAPHICS_ESCAPE:
+          for (int j = repeats[i]; j >= 0; j--)     // always do at least one
+            pen.writeGraphics (record[ptr + 1]);
+          break;
+
+        case Order.MODIFY_FIELD:
+          System.out.println ("What happens now?");
+          break;
+
+        case Order.ERASE_UNPROTECTED:
+          System.out.println ("EraseUnprotectedToAddress not finished");
+          break;
+
+        default:                                    // format control orders
+          for (int j = repeats[i]; j >= 0; j--)     // always do at least one
+            pen.write ((byte) 0x40);
+      }
+    }
+  }
+
+  // there has to be a StartFieldAttribute, but it could be anywhere in the list
+  private void startFieldExtended (Pen pen, int offset)
+  {
+    int totalAttributePairs = record[offset + 1] & 0xFF;
+    int max = offset + 2 + totalAttributePairs * 2;
+
+    for (int ptr = offset + 2; ptr < max; ptr += 2)
+      if (record[ptr] == Attribute.XA_START_FIELD)
+      {
+        StartFieldAttribute attribute = new StartFieldAttribute (record[ptr + 1]);
+        attribute.setExtended ();
+        pen.startField (attribute);
+        break;
+      }
+
+    for (int ptr = offset + 2; ptr < max; ptr += 2)
+      if (record[ptr] != Attribute.XA_START_FIELD)
+      {
+        Optional<Attribute> attribute =
+            Attribute.getAttribute (record[ptr], record[ptr + 1]);
+        if (attribute.isPresent ())
+          pen.addAttribute (attribute.get ());
+      }
+
+    pen.moveRight ();
+  }
+}
@@ -1,24 +1,26 @@
 package com.bytezone.dm3270.orders;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
 
 import com.bytezone.dm3270.display.DisplayScreen;
 import com.bytezone.dm3270.display.Pen;
 import com.bytezone.dm3270.utilities.Dm3270Utility;
 
+// The text is not copied out of the command's record, this.buffer is only created if
+// somebody asks for it.
+
 public class TextOrder extends Order
 {
   private int bufferOffset;
   byte[] originalBuffer;
+  private int dataLength;
 
   public TextOrder (byte[] buffer, int ptr, int max)
   {
     bufferOffset = ptr;                         // save for later scrambling
     originalBuffer = buffer;
-
-    int dataLength = getDataLength (buffer, ptr, max);
-    this.buffer = new byte[dataLength];
-    System.arraycopy (buffer, ptr, this.buffer, 0, dataLength);
+    dataLength = getDataLength (buffer, ptr, max);
   }
 
   public TextOrder (String text)
@@ -30,34 +32,60 @@ public class TextOrder extends Order
     catch (UnsupportedEncodingException e)
     {
       e.printStackTrace ();
+      buffer = new byte[0];
     }
+    originalBuffer = buffer;
+    dataLength = buffer.length;
   }
 
   private int getDataLength (byte[] buffer, int offset, int max)
   {
     int ptr = offset + 1;
-    int length = 1;
-    outer_loop: while (ptr < max)
-    {
-      byte value = buffer[ptr++];
-      for (int i = 0; i < orderValues.length; i++)
-        if (value == orderValues[i])
-          break outer_loop;
-      length++;
-    }
+    while (ptr < max && orderLengths[buffer[ptr] & 0xFF] == 0)
+      ptr++;
 
-    return length;
+    return ptr - offset;
   }
 
   public void scramble ()
   {
-    for (int ptr = 0; ptr < buffer.length; ptr++)
+    for (int ptr = 0; ptr < dataLength; ptr++)
       originalBuffer[bufferOffset + ptr] = 0x7B;
   }
 
   public String getTextString ()
   {
-    return Dm3270Utility.getString (buffer);
+    return Dm3270Utility.getString (originalBuffer, bufferOffset, dataLength);
+  }
+
+  @Override
+  public byte getType ()
+  {
+    return originalBuffer[bufferOffset];
+  }
+
+  @Override
+  public int size ()
+  {
+    return dataLength;
+  }
+
+  @Override
+  public byte[] getBuffer ()
+  {
+    if (buffer == null)
+    {
+      int end = bufferOffset + dataLength;
+      buffer = Arrays.copyOfRange (originalBuffer, bufferOffset, end);
+    }
+    return buffer;
+  }
+
+  @Override
+  public int pack (byte[] buffer, int offset)
+  {
+    System.arraycopy (originalBuffer, bufferOffset, buffer, offset, dataLength);
+    return offset + dataLength;
   }
 
   @Override
@@ -70,13 +98,14 @@ public class TextOrder extends Order
   public void process (DisplayScreen screen)
   {
     Pen pen = screen.getPen ();
-    for (byte b : buffer)
-      pen.write (b);
+    int max = bufferOffset + dataLength;
+    for (int ptr = bufferOffset; ptr < max; ptr++)
+      pen.write (originalBuffer[ptr]);
   }
 
   @Override
   public String toString ()
   {
-    return buffer.length == 0 ? "" : "Text: [" + Dm3270Utility.getString (buffer) + "]";
+    return dataLength == 0 ? "" : "Text: [" + getTextString () + "]";
   }
 }
\ No newline at end of file
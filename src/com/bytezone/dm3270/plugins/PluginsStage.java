@@ -296,6 +296,24 @@ public class PluginsStage extends PreferencesStage
   {
     assert consolePane != null;
 
+    AIDCommand command;
+
+    screen.lockModel ();                    // the session thread may be changing it
+    try
+    {
+      command = requestPlugin (plugin);
+    }
+    finally
+    {
+      screen.unlockModel ();
+    }
+
+    if (command != null)
+      consolePane.sendAID (command);
+  }
+
+  private AIDCommand requestPlugin (Plugin plugin)
+  {
     FieldManager fieldManager = screen.getFieldManager ();
     Cursor cursor = screen.getScreenCursor ();
 
@@ -307,10 +325,8 @@ public class PluginsStage extends PreferencesStage
     plugin.processRequest (pluginData);
     AIDCommand command = processReply (pluginData);
     if (command != null)
-    {
       screen.lockKeyboard (command.getKeyName ());
-      consolePane.sendAID (command);
-    }
+    return command;
   }
 
   private AIDCommand processReply (PluginData data)
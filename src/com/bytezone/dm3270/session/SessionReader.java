@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import com.bytezone.dm3270.streams.TelnetSocket.Source;
@@ -27,7 +28,7 @@ public class SessionReader
   private String label;
   private String returnLabel;
 
-  public byte[] buffer = new byte[16500];       // see also TelnetProcessor
+  public byte[] buffer = new byte[16500];       // grows, see also TelnetProcessor
 
   public SessionReader (Source source, List<String> lines)
   {
@@ -87,6 +88,8 @@ public class SessionReader
         String b = line.substring (0, 2).trim ();     // get hex value
         if (b.isEmpty ())
           break;
+        if (bytesWritten == buffer.length)
+          buffer = Arrays.copyOf (buffer, buffer.length * 2);
         buffer[bytesWritten++] = (byte) Integer.parseInt (b, 16);
         line = line.substring (3);                    // remove it from the line
       }
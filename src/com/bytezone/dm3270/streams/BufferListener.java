@@ -9,5 +9,23 @@ public interface BufferListener
   public void listen (Source targetRole, byte[] message, LocalDateTime dateTime,
       boolean genuine);
 
+  // Called from the socket readers with a buffer from the BufferPool. The listener
+  // takes over the caller's reference and must release() it when it has finished
+  // with the data. Listeners that only handle arrays get a (counted) copy.
+  public default void listen (Source targetRole, PooledBuffer message,
+      LocalDateTime dateTime, boolean genuine)
+  {
+    byte[] buffer;
+    try
+    {
+      buffer = message.toArray ();
+    }
+    finally
+    {
+      message.release ();
+    }
+    listen (targetRole, buffer, dateTime, genuine);
+  }
+
   public void close ();
-}
\ No newline at end of file
+}
@@ -0,0 +1,133 @@
+package com.bytezone.dm3270.streams;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Receive buffers for TerminalServer, NioTerminalServer and TelnetSocket. One large
+// array is carved into fixed-size slices when the pool is created, so a busy
+// connection reuses the same few slices instead of allocating a new byte[] for
+// every read. If the pool runs dry a new slice is allocated (and counted), and it
+// joins the pool when it is released.
+
+public class BufferPool
+{
+  public static final int SLICE_SIZE = 4096;
+  private static final int INITIAL_SLICES = 256;      // 1MB
+
+  private static final BufferPool instance = new BufferPool (INITIAL_SLICES, SLICE_SIZE);
+
+  private final Queue<PooledBuffer> freeBuffers = new ConcurrentLinkedQueue<> ();
+  private final int sliceSize;
+  private final int slices;
+  private final AtomicInteger totalSlices = new AtomicInteger ();
+
+  // allocation counters
+  private final AtomicLong acquires = new AtomicLong ();
+  private final AtomicLong releases = new AtomicLong ();
+  private final AtomicLong overflowAllocations = new AtomicLong ();
+  private final AtomicLong arrayCopies = new AtomicLong ();
+  private final AtomicLong bytesCopied = new AtomicLong ();
+
+  public static BufferPool getInstance ()
+  {
+    return instance;
+  }
+
+  public BufferPool (int slices, int sliceSize)
+  {
+    this.sliceSize = sliceSize;
+    this.slices = slices;
+
+    ByteBuffer backing = ByteBuffer.allocate (slices * sliceSize);
+    for (int i = 0; i < slices; i++)
+    {
+      backing.limit ((i + 1) * sliceSize);
+      backing.position (i * sliceSize);
+      freeBuffers.add (new PooledBuffer (this, backing.slice ()));
+    }
+    totalSlices.set (slices);
+  }
+
+  // the caller owns the returned buffer and must release() it
+  public PooledBuffer acquire ()
+  {
+    acquires.incrementAndGet ();
+
+    PooledBuffer buffer = freeBuffers.poll ();
+    if (buffer == null)
+    {
+      overflowAllocations.incrementAndGet ();
+      totalSlices.incrementAndGet ();
+      buffer = new PooledBuffer (this, ByteBuffer.allocate (sliceSize));
+    }
+
+    buffer.acquired ();
+    return buffer;
+  }
+
+  // called from PooledBuffer.release()
+  void recycle (PooledBuffer buffer)
+  {
+    releases.incrementAndGet ();
+    freeBuffers.add (buffer);
+  }
+
+  // called from PooledBuffer.toArray()
+  void countCopy (int length)
+  {
+    arrayCopies.incrementAndGet ();
+    bytesCopied.addAndGet (length);
+  }
+
+  // the number of slices the pool was created with
+  // called from RecordQueue() to size its ring
+  public int getSlices ()
+  {
+    return slices;
+  }
+
+  public long getAcquires ()
+  {
+    return acquires.get ();
+  }
+
+  public long getOverflowAllocations ()
+  {
+    return overflowAllocations.get ();
+  }
+
+  public long getArrayCopies ()
+  {
+    return arrayCopies.get ();
+  }
+
+  public int getBuffersInUse ()
+  {
+    return (int) (acquires.get () - releases.get ());
+  }
+
+  public String getSummary ()
+  {
+    StringBuilder text = new StringBuilder ();
+
+    text.append (String.format ("Receive buffers%n"));
+    text.append (String.format ("  Slices        %,9d x %,d bytes%n", totalSlices.get (),
+                                sliceSize));
+    text.append (String.format ("  Acquired      %,9d%n", acquires.get ()));
+    text.append (String.format ("  In use        %,9d%n", getBuffersInUse ()));
+    text.append (String.format ("  Allocated     %,9d%n", overflowAllocations.get ()));
+    text.append (String.format ("  Array copies  %,9d   (%,d bytes)", arrayCopies.get (),
+                                bytesCopied.get ()));
+
+    return text.toString ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getSummary ();
+  }
+}
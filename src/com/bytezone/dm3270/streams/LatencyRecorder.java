@@ -0,0 +1,98 @@
+package com.bytezone.dm3270.streams;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Thread-safe latency histogram with one bucket per power of two nanoseconds, so
+// recording a value is a couple of atomic increments and never allocates. The
+// percentiles are therefore approximate - each one is reported as the upper bound
+// of the bucket it falls in.
+
+public class LatencyRecorder
+{
+  private static final int BUCKETS = 64;
+
+  private final String name;
+  private final AtomicLongArray buckets = new AtomicLongArray (BUCKETS);
+  private final AtomicLong count = new AtomicLong ();
+  private final AtomicLong total = new AtomicLong ();
+  private final AtomicLong max = new AtomicLong ();
+
+  public LatencyRecorder (String name)
+  {
+    this.name = name;
+  }
+
+  public void record (long nanos)
+  {
+    if (nanos < 0)
+      nanos = 0;
+
+    // bucket n holds values from 2^(n-1) to 2^n - 1
+    buckets.incrementAndGet (BUCKETS - Long.numberOfLeadingZeros (nanos));
+    count.incrementAndGet ();
+    total.addAndGet (nanos);
+
+    long currentMax;
+    while (nanos > (currentMax = max.get ()))
+      if (max.compareAndSet (currentMax, nanos))
+        break;
+  }
+
+  public long getCount ()
+  {
+    return count.get ();
+  }
+
+  public double getMean ()
+  {
+    long n = count.get ();
+    return n == 0 ? 0 : (double) total.get () / n;
+  }
+
+  public long getMax ()
+  {
+    return max.get ();
+  }
+
+  // upper bound in nanoseconds of the bucket that holds the given percentile
+  public long getPercentile (double percentile)
+  {
+    long n = count.get ();
+    if (n == 0)
+      return 0;
+
+    long target = (long) Math.ceil (n * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++)
+    {
+      seen += buckets.get (i);
+      if (seen >= target)
+        return i == 0 ? 0 : Math.min (max.get (), (1L << i) - 1);
+    }
+    return max.get ();
+  }
+
+  public void reset ()
+  {
+    for (int i = 0; i < BUCKETS; i++)
+      buckets.set (i, 0);
+    count.set (0);
+    total.set (0);
+    max.set (0);
+  }
+
+  public String getSummary ()
+  {
+    return String.format ("%-14s %,9d   mean %,8.1f us   p50 %,8.1f us   p99 %,8.1f us"
+        + "   max %,8.1f us", name, getCount (), getMean () / 1000,
+                          getPercentile (50) / 1000.0, getPercentile (99) / 1000.0,
+                          getMax () / 1000.0);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return getSummary ();
+  }
+}
@@ -0,0 +1,206 @@
+package com.bytezone.dm3270.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+import com.bytezone.dm3270.application.Mainframe;
+import com.bytezone.dm3270.commands.Command;
+import com.bytezone.dm3270.telnet.TelnetCommand;
+import com.bytezone.dm3270.telnet.TelnetCommandProcessor;
+import com.bytezone.dm3270.telnet.TelnetProcessor;
+import com.bytezone.dm3270.telnet.TelnetSubcommand;
+import com.bytezone.dm3270.telnet.TerminalTypeSubcommand;
+import com.bytezone.dm3270.utilities.Dm3270Utility;
+
+import javafx.application.Platform;
+
+// One terminal connected to the MainframeServer. Everything the terminal sends
+// goes through a TelnetProcessor, which reassembles records that are split across
+// reads and separates records that arrive together, so each complete record
+// becomes one Command for the Mainframe.
+
+public class MainframeConnection implements Runnable, TelnetCommandProcessor
+{
+  private final MainframeServer mainframeServer;
+  private final Mainframe mainframe;
+  private final int id;
+
+  private final Socket socket;
+  private final InputStream clientIn;
+  private final WriteQueue writeQueue;
+
+  private final byte[] buffer = new byte[4096];
+  private final TelnetProcessor telnetProcessor = new TelnetProcessor (this);
+  private volatile boolean running;
+
+  MainframeConnection (MainframeServer mainframeServer, Mainframe mainframe, int id,
+      Socket socket) throws IOException
+  {
+    this.mainframeServer = mainframeServer;
+    this.mainframe = mainframe;
+    this.id = id;
+    this.socket = socket;
+
+    clientIn = socket.getInputStream ();
+    writeQueue = new WriteQueue (socket.getOutputStream ());
+  }
+
+  @Override
+  public void run ()
+  {
+    try
+    {
+      writeAll (TelnetCommand.IAC, TelnetCommand.DO, TelnetSubcommand.TERMINAL_TYPE);
+      readAtLeast (1);
+
+      writeAll (TelnetCommand.IAC, TelnetCommand.SB, TelnetSubcommand.TERMINAL_TYPE,
+          TerminalTypeSubcommand.OPTION_SEND, TelnetCommand.IAC, TelnetCommand.SE);
+      readAtLeast (1);
+
+      writeAll (TelnetCommand.IAC, TelnetCommand.DO, TelnetSubcommand.EOR);
+      writeAll (TelnetCommand.IAC, TelnetCommand.WILL, TelnetSubcommand.EOR);
+      readAtLeast (6);
+
+      writeAll (TelnetCommand.IAC, TelnetCommand.DO, TelnetSubcommand.BINARY);
+      writeAll (TelnetCommand.IAC, TelnetCommand.WILL, TelnetSubcommand.BINARY);
+      readAtLeast (6);
+
+      // send Query to find out what the terminal supports
+      byte[] cmd = { (byte) 0xF3, 0x00, 0x06, 0x40, 0x00,    //
+                     (byte) 0xF1, (byte) 0xC0, 0x00, 0x05,   // note WCC = 0xC0
+                     0x01, (byte) 0xFF, (byte) 0xFF,         // note double FF
+                     0x02, (byte) 0xFF, (byte) 0xEF };
+
+      write (cmd);
+
+      running = true;
+      while (running)
+      {
+        if (Thread.interrupted ())
+        {
+          System.out.println ("MainframeConnection interrupted");
+          break;
+        }
+
+        if (read () < 0)
+          break;
+      }
+    }
+    catch (SocketException e)     // caused by closing the socket
+    {
+      if (running)
+        System.out.println ("Terminal " + id + " disconnected");
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+
+    close ();
+  }
+
+  // Pass whatever arrives to the TelnetProcessor. The negotiation replies are
+  // ignored, and any data record that arrives in the same buffer is kept.
+  private int read () throws IOException
+  {
+    int bytesRead = clientIn.read (buffer);     // blocks
+    if (bytesRead > 0)
+      telnetProcessor.listen (buffer, 0, bytesRead);
+    return bytesRead;
+  }
+
+  private void readAtLeast (int bytesToRead) throws IOException
+  {
+    writeQueue.flush ();                        // send everything we are waiting on
+    while (bytesToRead > 0)
+    {
+      int bytesRead = read ();
+      if (bytesRead < 0)
+        throw new SocketException ("End of stream");
+      bytesToRead -= bytesRead;
+    }
+  }
+
+  // negotiation commands are held until the next readAtLeast()
+  private void writeAll (byte... buffer)
+  {
+    writeQueue.enqueue (buffer);
+  }
+
+  public void write (byte[] buffer)
+  {
+    try
+    {
+      writeQueue.write (buffer);
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+  }
+
+  public int getId ()
+  {
+    return id;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // TelnetCommandProcessor - called on this connection's thread
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void processRecord (byte[] data, int dataPtr)
+  {
+    if (mainframe == null)
+      return;
+
+    // the TelnetProcessor has already removed any doubled 0xFF bytes
+    Command command = Command.getReply (data, 0, dataPtr - 2);    // exclude IAC/EOR
+    Platform.runLater ( () -> mainframe.receiveCommand (this, command));
+  }
+
+  @Override
+  public void processData (byte[] data, int length)
+  {
+    System.out.println ("Unknown telnet data received:");
+    System.out.println (Dm3270Utility.toHex (data, 0, length, false));
+  }
+
+  @Override
+  public void processTelnetCommand (byte[] data, int dataPtr)
+  {
+    // negotiation replies - the server asked for the only options it accepts
+  }
+
+  @Override
+  public void processTelnetSubcommand (byte[] data, int dataPtr)
+  {
+    // terminal type reply
+  }
+
+  public void close ()
+  {
+    running = false;
+
+    try
+    {
+      socket.close ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+
+    writeQueue.clear ();
+    mainframeServer.closed (this);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return String.format ("MainframeConnection %d: %s", id,
+                          socket.getRemoteSocketAddress ());
+  }
+}
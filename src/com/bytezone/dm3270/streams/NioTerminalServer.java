@@ -0,0 +1,278 @@
+package com.bytezone.dm3270.streams;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.bytezone.dm3270.streams.SelectorManager.SelectorThread;
+import com.bytezone.dm3270.streams.TelnetSocket.Source;
+import com.bytezone.dm3270.utilities.Dm3270Utility;
+
+// A non-blocking alternative to TerminalServer. Instead of sitting in its own
+// thread waiting on InputStream.read(), the connection is registered with one of
+// the SelectorManager's threads, which calls read() whenever data arrives. Writes
+// may come from any thread (FX thread, keep-alive), so they are queued and handed
+// to the selector thread, which sends everything queued with one gathering write.
+// Like TerminalServer, each read is a turn: replies written on the selector thread
+// while the listener is processing it are held, and go out together when read()
+// flushes at the end of the turn. -writedelay=n lets other writes wait up to n
+// milliseconds.
+
+public class NioTerminalServer implements ServerConnection, SelectorHandler
+{
+  private final int serverPort;
+  private final String serverURL;
+  private SocketChannel channel;
+  private SelectionKey key;
+  private volatile SelectorThread selectorThread;
+
+  private final BufferPool bufferPool = BufferPool.getInstance ();
+  private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<> ();
+  private final AtomicBoolean flushRequested = new AtomicBoolean ();
+  private ByteBuffer[] gather = new ByteBuffer[8];
+  private boolean inTurn;                       // only used on the selector thread
+  private volatile boolean running;
+
+  private final BufferListener telnetListener;
+  private final boolean debug = false;
+
+  public NioTerminalServer (String serverURL, int serverPort, BufferListener listener)
+  {
+    this.serverPort = serverPort;
+    this.serverURL = serverURL;
+    this.telnetListener = listener;
+  }
+
+  // called from ConsolePane.connect()
+  public void connect ()
+  {
+    try
+    {
+      channel = SocketChannel.open ();
+      channel.configureBlocking (false);
+      channel.connect (new InetSocketAddress (serverURL, serverPort));
+
+      selectorThread = SelectorManager.getInstance ().register (this, channel);
+      running = true;
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+      close ();
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called on the selector thread
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void setKey (SelectionKey key)
+  {
+    this.key = key;
+  }
+
+  @Override
+  public void finishConnect ()
+  {
+    try
+    {
+      if (channel.finishConnect ())
+        setInterest ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+      close ();
+    }
+  }
+
+  @Override
+  public void read ()
+  {
+    PooledBuffer message = bufferPool.acquire ();
+    try
+    {
+      int bytesRead = channel.read (message.byteBuffer ());
+      if (bytesRead <= 0)
+      {
+        message.release ();
+        if (bytesRead < 0)
+          close ();
+        return;
+      }
+
+      message.setLength (bytesRead);
+
+      if (debug)
+      {
+        System.out.println (toString ());
+        System.out.println ("reading:");
+        System.out.println (Dm3270Utility.toHex (message.array (), message.offset (),
+                                                 bytesRead));
+      }
+
+      // the listener now owns the buffer, and its replies are sent together
+      inTurn = true;
+      try
+      {
+        telnetListener.listen (Source.SERVER, message, LocalDateTime.now (), true);
+      }
+      finally
+      {
+        inTurn = false;
+      }
+      if (running && !pendingWrites.isEmpty ())
+        flush ();
+    }
+    catch (IOException e)
+    {
+      message.release ();
+      if (running)
+      {
+        e.printStackTrace ();
+        close ();
+      }
+    }
+  }
+
+  @Override
+  public void flush ()
+  {
+    flushRequested.set (false);
+
+    if (!channel.isConnected ())
+      return;                         // finishConnect() will ask for OP_WRITE
+
+    try
+    {
+      int totalBuffers = 0;
+      for (ByteBuffer pending : pendingWrites)
+      {
+        if (totalBuffers == gather.length)
+        {
+          ByteBuffer[] newGather = new ByteBuffer[gather.length * 2];
+          System.arraycopy (gather, 0, newGather, 0, totalBuffers);
+          gather = newGather;
+        }
+        gather[totalBuffers++] = pending;
+      }
+
+      if (totalBuffers > 0)
+      {
+        channel.write (gather, 0, totalBuffers);
+        WriteQueue.countWrite (totalBuffers);
+
+        // remove whatever was sent completely, the rest waits for OP_WRITE
+        for (int i = 0; i < totalBuffers; i++)
+        {
+          if (gather[i].hasRemaining ())
+            break;
+          pendingWrites.poll ();
+        }
+        Arrays.fill (gather, 0, totalBuffers, null);
+      }
+
+      setInterest ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+      close ();
+    }
+  }
+
+  private void setInterest ()
+  {
+    if (key == null || !key.isValid () || channel.isConnectionPending ())
+      return;
+
+    key.interestOps (pendingWrites.isEmpty () ? SelectionKey.OP_READ
+        : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called from any thread
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void write (byte[] buffer)
+  {
+    if (!running)
+    {
+      // the no-op may come here if the program is not closed after disconnection
+      System.out.println ("channel is closed in NioTerminalServer");
+      return;
+    }
+
+    pendingWrites.add (ByteBuffer.wrap (buffer));
+
+    if (Thread.currentThread () == selectorThread && inTurn)
+      return;                                   // read() will send it
+
+    // one flush task sends everything that has been queued up until it runs
+    if (flushRequested.compareAndSet (false, true))
+    {
+      int delay = WriteQueue.getMaxDelay ();
+      if (delay == 0)
+        selectorThread.execute ( () -> flush ());
+      else
+        WriteQueue.getScheduler ().schedule ( () -> selectorThread
+            .execute ( () -> flush ()), delay, TimeUnit.MILLISECONDS);
+    }
+
+    if (debug)
+    {
+      System.out.println (toString ());
+      System.out.println ("writing:");
+      System.out.println (Dm3270Utility.toHex (buffer));
+    }
+  }
+
+  // write() only queues the buffer when it is called off the selector thread
+  @Override
+  public void writeLater (byte[] buffer)
+  {
+    write (buffer);
+  }
+
+  @Override
+  public void close ()
+  {
+    boolean wasRunning = running;
+    running = false;
+
+    try
+    {
+      if (key != null)
+        key.cancel ();
+
+      if (channel != null)
+        channel.close ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+
+    pendingWrites.clear ();
+
+    if (wasRunning && telnetListener != null)
+      telnetListener.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return String.format ("NioTerminalServer listening to %s : %d", serverURL,
+                          serverPort);
+  }
+}
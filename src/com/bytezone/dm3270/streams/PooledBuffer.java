@@ -0,0 +1,102 @@
+package com.bytezone.dm3270.streams;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A reusable slice of the BufferPool that holds the bytes from a single socket read.
+// Ownership is explicit: whoever acquires the buffer holds one reference, each
+// retain() adds another, and the buffer goes back to the pool when the last holder
+// calls release(). The contents must not be used after release().
+
+public final class PooledBuffer
+{
+  private final BufferPool pool;
+  private final ByteBuffer slice;
+  private final AtomicInteger references = new AtomicInteger ();
+  private int length;
+
+  PooledBuffer (BufferPool pool, ByteBuffer slice)
+  {
+    this.pool = pool;
+    this.slice = slice;
+  }
+
+  // called from BufferPool.acquire()
+  void acquired ()
+  {
+    references.set (1);
+    length = 0;
+  }
+
+  public byte[] array ()
+  {
+    return slice.array ();
+  }
+
+  public int offset ()
+  {
+    return slice.arrayOffset ();
+  }
+
+  public int length ()
+  {
+    return length;
+  }
+
+  public int capacity ()
+  {
+    return slice.capacity ();
+  }
+
+  public void setLength (int length)
+  {
+    if (length < 0 || length > slice.capacity ())
+      throw new IllegalArgumentException ("Invalid length: " + length);
+    this.length = length;
+  }
+
+  public byte get (int index)
+  {
+    return slice.get (index);
+  }
+
+  // a ByteBuffer view for channel reads, positioned at the start of the slice
+  public ByteBuffer byteBuffer ()
+  {
+    slice.clear ();
+    return slice;
+  }
+
+  // take an additional reference before handing the buffer to someone else
+  public PooledBuffer retain ()
+  {
+    if (references.getAndIncrement () <= 0)
+      throw new IllegalStateException ("Buffer has already been released");
+    return this;
+  }
+
+  public void release ()
+  {
+    int remaining = references.decrementAndGet ();
+    if (remaining == 0)
+      pool.recycle (this);
+    else if (remaining < 0)
+      throw new IllegalStateException ("Buffer released too many times");
+  }
+
+  // only for listeners that need a private copy - these copies are counted
+  public byte[] toArray ()
+  {
+    byte[] copy = new byte[length];
+    System.arraycopy (slice.array (), slice.arrayOffset (), copy, 0, length);
+    pool.countCopy (length);
+    return copy;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return String.format ("PooledBuffer: length=%d, capacity=%d, references=%d",
+                          length, slice.capacity (), references.get ());
+  }
+}
@@ -0,0 +1,345 @@
+package com.bytezone.dm3270.streams;
+
+import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.bytezone.dm3270.streams.TelnetSocket.Source;
+
+// Hands the buffers that a forward-first TelnetSocket has already sent on to a
+// single parser thread, which passes them to their TelnetListeners in the order
+// they arrived. The queue is a fixed ring of reusable entries: producers (the
+// selector threads) claim a slot with a compare-and-set and never take a lock or
+// wait, so the proxy is not held up by the parser. When the ring is three quarters
+// full each TelnetSocket that adds to it stops reading until the parser has caught
+// up. If the ring fills anyway, the record is dropped and counted. The ring holds at
+// most half of the BufferPool's slices, so a full ring can't make the pool grow.
+// Once the queue has been closed, anything else that is added is dropped, and its
+// buffer released.
+
+public class RecordQueue implements Runnable
+{
+  private final Entry[] entries;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final int highWater;                            // pause the readers
+  private final int lowWater;                             // resume them
+
+  private final AtomicLong tail = new AtomicLong ();      // next slot to claim
+  private volatile long head;                             // written by the parser
+
+  private final Queue<Task> tasks = new ConcurrentLinkedQueue<> ();
+  private final Queue<Runnable> pausedReaders = new ConcurrentLinkedQueue<> ();
+
+  private volatile Thread parserThread;
+  private volatile boolean parserWaiting;
+  private volatile boolean running;
+  private final AtomicInteger producers = new AtomicInteger ();   // inside an add
+
+  private final LatencyRecorder queueLatency = new LatencyRecorder ("Parse delay");
+  private final AtomicLong pauses = new AtomicLong ();
+  private final AtomicLong recordsDropped = new AtomicLong ();
+
+  public RecordQueue ()
+  {
+    this (capacityFor (BufferPool.getInstance ()));
+  }
+
+  public RecordQueue (int capacity)
+  {
+    if (Integer.bitCount (capacity) != 1)
+      throw new IllegalArgumentException ("Capacity must be a power of two");
+
+    entries = new Entry[capacity];
+    sequences = new AtomicLongArray (capacity);
+    for (int i = 0; i < capacity; i++)
+    {
+      entries[i] = new Entry ();
+      sequences.set (i, i);
+    }
+    mask = capacity - 1;
+    highWater = capacity - capacity / 4;
+    lowWater = capacity / 4;
+    running = true;
+  }
+
+  // each pooled record holds a slice until it has been parsed
+  private static int capacityFor (BufferPool pool)
+  {
+    return Integer.highestOneBit (Math.max (4, pool.getSlices () / 2));
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called from any thread
+  // ---------------------------------------------------------------------------------//
+
+  // the queue takes over the caller's reference to the buffer
+  public void add (BufferListener listener, Source source, PooledBuffer buffer,
+      LocalDateTime dateTime, boolean genuine)
+  {
+    Entry entry = claim ();
+    if (entry == null)
+    {
+      buffer.release ();                        // nobody will parse it now
+      return;
+    }
+    entry.set (listener, source, dateTime, genuine);
+    entry.pooledBuffer = buffer;
+    publish (entry);
+  }
+
+  public void add (BufferListener listener, Source source, byte[] buffer,
+      LocalDateTime dateTime, boolean genuine)
+  {
+    Entry entry = claim ();
+    if (entry == null)
+      return;
+    entry.set (listener, source, dateTime, genuine);
+    entry.buffer = buffer;
+    publish (entry);
+  }
+
+  // run the task on the parser thread after everything that is already queued
+  public void execute (Runnable task)
+  {
+    producers.incrementAndGet ();
+    if (running)
+      tasks.add (new Task (tail.get (), task));
+    producers.decrementAndGet ();
+    wakeParser ();
+  }
+
+  // Called on a TelnetSocket's selector thread after it has added its records. If
+  // the ring is filling up, the socket should stop reading, and resume is run once
+  // the parser has caught up.
+  public boolean pauseIfBackedUp (Runnable resume)
+  {
+    if (tail.get () - head < highWater)
+      return false;
+
+    pauses.incrementAndGet ();
+    pausedReaders.add (resume);
+    wakeParser ();
+    return true;
+  }
+
+  // returns null once the queue is closed or full, otherwise publish() must follow
+  private Entry claim ()
+  {
+    producers.incrementAndGet ();
+    if (!running)
+    {
+      producers.decrementAndGet ();
+      return null;
+    }
+
+    while (true)
+    {
+      long position = tail.get ();
+      long available = sequences.get ((int) position & mask) - position;
+
+      if (available == 0)
+      {
+        if (tail.compareAndSet (position, position + 1))
+        {
+          Entry entry = entries[(int) position & mask];
+          entry.position = position;
+          return entry;
+        }
+      }
+      else if (available < 0)                   // the ring is full
+      {
+        recordsDropped.incrementAndGet ();
+        producers.decrementAndGet ();
+        wakeParser ();
+        return null;
+      }
+    }
+  }
+
+  private void publish (Entry entry)
+  {
+    sequences.set ((int) entry.position & mask, entry.position + 1);
+    producers.decrementAndGet ();
+    if (parserWaiting)
+      wakeParser ();
+  }
+
+  private void wakeParser ()
+  {
+    Thread thread = parserThread;
+    if (thread != null)
+      LockSupport.unpark (thread);
+  }
+
+  public LatencyRecorder getQueueLatency ()
+  {
+    return queueLatency;
+  }
+
+  public String getSummary ()
+  {
+    return String.format ("%s%nReader pauses   %,9d%nRecords dropped %,9d",
+                          queueLatency.getSummary (), pauses.get (),
+                          recordsDropped.get ());
+  }
+
+  // parse everything that has been queued and then stop
+  public void close ()
+  {
+    running = false;
+    wakeParser ();
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Parser thread
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void run ()
+  {
+    parserThread = Thread.currentThread ();
+
+    while (true)
+    {
+      runTasks ();
+      if (!pausedReaders.isEmpty () && tail.get () - head <= lowWater)
+        resumeReaders ();
+
+      int index = (int) head & mask;
+      if (sequences.get (index) != head + 1)        // nothing to do
+      {
+        // a producer that got in before close() may still be adding
+        if (!running && producers.get () == 0 && sequences.get (index) != head + 1)
+        {
+          runTasks ();
+          if (tasks.isEmpty ())
+            break;
+        }
+
+        parserWaiting = true;
+        if (sequences.get (index) != head + 1)      // check again before parking
+          LockSupport.parkNanos (TimeUnit.MILLISECONDS.toNanos (10));
+        parserWaiting = false;
+        continue;
+      }
+
+      Entry entry = entries[index];
+      try
+      {
+        entry.process ();
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace ();
+      }
+      finally
+      {
+        queueLatency.record (System.nanoTime () - entry.queued);
+        entry.clear ();
+        sequences.set (index, head + entries.length);
+        ++head;
+      }
+    }
+
+    resumeReaders ();                         // let any paused sockets finish
+    parserThread = null;
+  }
+
+  // run the tasks whose records have all been parsed
+  private void runTasks ()
+  {
+    Task task;
+    while ((task = tasks.peek ()) != null && task.position <= head)
+    {
+      tasks.poll ();
+      try
+      {
+        task.runnable.run ();
+      }
+      catch (Exception e)
+      {
+        e.printStackTrace ();
+      }
+    }
+  }
+
+  private void resumeReaders ()
+  {
+    Runnable resume;
+    while ((resume = pausedReaders.poll ()) != null)
+      resume.run ();
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // A task and the position it has to wait for
+  // ---------------------------------------------------------------------------------//
+
+  private static class Task
+  {
+    private final long position;
+    private final Runnable runnable;
+
+    Task (long position, Runnable runnable)
+    {
+      this.position = position;
+      this.runnable = runnable;
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // One slot in the ring
+  // ---------------------------------------------------------------------------------//
+
+  private static class Entry
+  {
+    private long position;
+    private long queued;
+
+    private BufferListener listener;
+    private Source source;
+    private PooledBuffer pooledBuffer;
+    private byte[] buffer;
+    private LocalDateTime dateTime;
+    private boolean genuine;
+
+    void set (BufferListener listener, Source source, LocalDateTime dateTime,
+        boolean genuine)
+    {
+      this.listener = listener;
+      this.source = source;
+      this.dateTime = dateTime;
+      this.genuine = genuine;
+      this.queued = System.nanoTime ();
+    }
+
+    void process ()
+    {
+      if (pooledBuffer != null)
+      {
+        PooledBuffer message = pooledBuffer;
+        pooledBuffer = null;
+        listener.listen (source, message, dateTime, genuine);   // releases it
+      }
+      else
+        listener.listen (source, buffer, dateTime, genuine);
+    }
+
+    void clear ()
+    {
+      if (pooledBuffer != null)               // listen() wasn't reached
+        pooledBuffer.release ();
+
+      listener = null;
+      source = null;
+      pooledBuffer = null;
+      buffer = null;
+      dateTime = null;
+    }
+  }
+}
@@ -0,0 +1,192 @@
+package com.bytezone.dm3270.streams;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import com.bytezone.dm3270.buffers.Buffer;
+import com.bytezone.dm3270.buffers.ReplyBuffer;
+import com.bytezone.dm3270.display.Screen;
+
+// Hands TN3270 records from the reader thread to the session's own processing thread,
+// which is the only thread that applies host commands to the screen model. Each time
+// it wakes up it processes everything that has arrived (up to MAX_BATCH records) with
+// the Screen's drawing held, then the Screen publishes one snapshot of the changed
+// positions for the JavaFX thread to paint. Parsing, applying orders and building the
+// fields never run on the JavaFX thread, so a heavy screen doesn't stop it handling
+// the keyboard and mouse. The queue is bounded, so when the session thread falls
+// behind the reader thread blocks in add() and stops reading from the host, rather
+// than the queue growing without limit. The model is locked for each batch, because
+// the FX thread changes it too when it handles the keyboard.
+
+public class ScreenUpdateQueue implements Runnable
+{
+  private static final int CAPACITY = 256;
+  private static final int MAX_BATCH = 64;    // publish a snapshot at least this often
+
+  private final BlockingQueue<ReplyBuffer> queue = new ArrayBlockingQueue<> (CAPACITY);
+  private final List<ReplyBuffer> batch = new ArrayList<> (MAX_BATCH);
+
+  private final Screen screen;
+  private final Consumer<ReplyBuffer> processor;
+  private final Thread sessionThread;
+
+  private final AtomicLong recordsQueued = new AtomicLong ();
+  private final AtomicLong timesBlocked = new AtomicLong ();
+  private volatile long batchesDrained;         // only written on the session thread
+  private volatile int largestBatch;            // only written on the session thread
+
+  public ScreenUpdateQueue (Screen screen, Consumer<ReplyBuffer> processor)
+  {
+    this.screen = screen;
+    this.processor = processor;
+
+    sessionThread = ThreadManager.start (this, "Session");
+  }
+
+  // called from TelnetListener.addDataRecord() on the reader thread
+  public void add (ReplyBuffer message)
+  {
+    try
+    {
+      if (!queue.offer (message))
+      {
+        timesBlocked.incrementAndGet ();
+        queue.put (message);                    // wait for the session to catch up
+      }
+      recordsQueued.incrementAndGet ();
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread ().interrupt ();     // disconnecting, so drop the record
+    }
+  }
+
+  @Override
+  public void run ()
+  {
+    EndOfSession end = null;
+    try
+    {
+      while (end == null)
+      {
+        batch.add (queue.take ());              // wait for the next record
+        queue.drainTo (batch, MAX_BATCH - 1);
+
+        for (int i = 0; i < batch.size (); i++)
+          if (batch.get (i) instanceof EndOfSession)
+          {
+            end = (EndOfSession) batch.get (i);
+            batch.subList (i, batch.size ()).clear ();    // arrived after close()
+            break;
+          }
+
+        if (!batch.isEmpty ())
+          drain ();
+      }
+    }
+    catch (InterruptedException e)
+    {
+      return;                                   // the application is shutting down
+    }
+
+    queue.clear ();                             // don't leave the reader blocked
+    end.lastTask.run ();
+  }
+
+  private void drain ()
+  {
+    ++batchesDrained;
+    largestBatch = Math.max (largestBatch, batch.size ());
+
+    screen.lockModel ();
+    screen.holdDrawing ();
+    try
+    {
+      for (ReplyBuffer message : batch)
+        processor.accept (message);
+    }
+    catch (Exception e)
+    {
+      e.printStackTrace ();                     // keep the session alive
+    }
+    finally
+    {
+      batch.clear ();
+      screen.releaseDrawing ();                 // publishes the changes, if any
+      screen.unlockModel ();
+    }
+  }
+
+  // called from TelnetListener.close() - the records that are already queued (e.g. the
+  // final screens before the host disconnected) are still processed, then lastTask
+  // runs on the session thread and the thread ends
+  public void close (Runnable lastTask)
+  {
+    try
+    {
+      queue.put (new EndOfSession (lastTask));
+    }
+    catch (InterruptedException e)
+    {
+      Thread.currentThread ().interrupt ();
+      sessionThread.interrupt ();
+    }
+  }
+
+  public String getSummary ()
+  {
+    return String.format ("Screen updates   %,7d in %,d batches (largest %d), "
+        + "reader blocked %,d times", recordsQueued.get (), batchesDrained, largestBatch,
+                          timesBlocked.get ());
+  }
+
+  // queued by close() after the last record
+  private static class EndOfSession implements ReplyBuffer
+  {
+    private final Runnable lastTask;
+
+    EndOfSession (Runnable lastTask)
+    {
+      this.lastTask = lastTask;
+    }
+
+    @Override
+    public byte[] getData ()
+    {
+      return new byte[0];
+    }
+
+    @Override
+    public byte[] getTelnetData ()
+    {
+      return new byte[0];
+    }
+
+    @Override
+    public int size ()
+    {
+      return 0;
+    }
+
+    @Override
+    public void process (Screen screen)
+    {
+    }
+
+    @Override
+    public Optional<Buffer> getReply ()
+    {
+      return Optional.empty ();
+    }
+
+    @Override
+    public void setReply (Buffer reply)
+    {
+    }
+  }
+}
@@ -0,0 +1,19 @@
+package com.bytezone.dm3270.streams;
+
+import java.nio.channels.SelectionKey;
+
+// Implemented by the connections that run on a SelectorManager thread
+// (NioTerminalServer and TelnetSocket). Every method is called on that thread.
+
+interface SelectorHandler
+{
+  void setKey (SelectionKey key);
+
+  void finishConnect ();
+
+  void read ();
+
+  void flush ();
+
+  void close ();
+}
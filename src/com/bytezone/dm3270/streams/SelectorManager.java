@@ -0,0 +1,208 @@
+package com.bytezone.dm3270.streams;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs any number of NioTerminalServer and TelnetSocket connections on a small,
+// fixed set of threads. Each thread owns one Selector, and each connection is
+// pinned to the thread it was registered with, so all of its reads, writes and
+// state changes happen on that thread.
+
+public class SelectorManager
+{
+  private static final int DEFAULT_THREADS =
+      Math.max (1, Math.min (4, Runtime.getRuntime ().availableProcessors ()));
+
+  private static boolean enabled;
+  private static int totalThreads = DEFAULT_THREADS;
+  private static SelectorManager instance;
+
+  private final SelectorThread[] selectorThreads;
+  private final AtomicInteger nextThread = new AtomicInteger ();
+
+  // called from Console.init() when -nio is specified
+  public static void setEnabled (boolean value, int threads)
+  {
+    enabled = value;
+    if (threads > 0)
+      totalThreads = threads;
+  }
+
+  public static boolean isEnabled ()
+  {
+    return enabled;
+  }
+
+  public static synchronized SelectorManager getInstance ()
+  {
+    if (instance == null)
+      try
+      {
+        instance = new SelectorManager (totalThreads);
+      }
+      catch (IOException e)
+      {
+        throw new IllegalStateException ("Cannot open a Selector", e);
+      }
+    return instance;
+  }
+
+  // called from Console.stop()
+  public static synchronized void shutdown ()
+  {
+    if (instance != null)
+    {
+      instance.close ();
+      instance = null;
+    }
+  }
+
+  private SelectorManager (int totalThreads) throws IOException
+  {
+    selectorThreads = new SelectorThread[totalThreads];
+    for (int i = 0; i < totalThreads; i++)
+    {
+      selectorThreads[i] = new SelectorThread (i);
+      selectorThreads[i].start ();
+    }
+  }
+
+  // called from NioTerminalServer.connect()
+  SelectorThread register (SelectorHandler connection, SocketChannel channel)
+  {
+    SelectorThread selectorThread = nextThread ();
+    selectorThread.register (connection, channel);
+    return selectorThread;
+  }
+
+  // called from SpyServer.run(), which puts both halves of a connection on the
+  // same thread
+  SelectorThread nextThread ()
+  {
+    int index = Math.floorMod (nextThread.getAndIncrement (), selectorThreads.length);
+    return selectorThreads[index];
+  }
+
+  private void close ()
+  {
+    for (SelectorThread selectorThread : selectorThreads)
+      selectorThread.close ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return String.format ("SelectorManager: %d threads", selectorThreads.length);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // One Selector and the thread that services it
+  // ---------------------------------------------------------------------------------//
+
+  static class SelectorThread extends Thread
+  {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<> ();
+    private volatile boolean running;
+
+    SelectorThread (int id) throws IOException
+    {
+      super ("SelectorThread-" + id);
+      setDaemon (true);
+      selector = Selector.open ();
+    }
+
+    void register (SelectorHandler connection, SocketChannel channel)
+    {
+      execute ( () ->
+      {
+        try
+        {
+          int ops = channel.isConnectionPending () ? SelectionKey.OP_CONNECT
+              : SelectionKey.OP_READ;
+          connection.setKey (channel.register (selector, ops, connection));
+        }
+        catch (IOException e)
+        {
+          e.printStackTrace ();
+          connection.close ();
+        }
+      });
+    }
+
+    // Run the task on this thread the next time it wakes up. A task added by this
+    // thread (e.g. a flush from inside read()) stops the next select() from blocking.
+    void execute (Runnable task)
+    {
+      tasks.add (task);
+      if (Thread.currentThread () != this)
+        selector.wakeup ();
+    }
+
+    @Override
+    public void run ()
+    {
+      running = true;
+      while (running)
+      {
+        try
+        {
+          if (tasks.isEmpty ())
+            selector.select ();
+          else
+            selector.selectNow ();              // tasks were added by a handler
+
+          Runnable task;
+          while ((task = tasks.poll ()) != null)
+            task.run ();
+
+          Iterator<SelectionKey> iterator = selector.selectedKeys ().iterator ();
+          while (iterator.hasNext ())
+          {
+            SelectionKey key = iterator.next ();
+            iterator.remove ();
+
+            SelectorHandler connection = (SelectorHandler) key.attachment ();
+            if (!key.isValid ())
+              continue;
+
+            if (key.isConnectable ())
+              connection.finishConnect ();
+            if (key.isValid () && key.isReadable ())
+              connection.read ();
+            if (key.isValid () && key.isWritable ())
+              connection.flush ();
+          }
+        }
+        catch (IOException e)
+        {
+          if (running)
+            e.printStackTrace ();
+        }
+      }
+
+      try
+      {
+        for (SelectionKey key : selector.keys ())
+          ((SelectorHandler) key.attachment ()).close ();
+        selector.close ();
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace ();
+      }
+    }
+
+    void close ()
+    {
+      running = false;
+      selector.wakeup ();
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.bytezone.dm3270.streams;
+
+// Implemented by TerminalServer (one blocking thread per socket) and by
+// NioTerminalServer (multiplexed on a SelectorManager thread).
+
+public interface ServerConnection
+{
+  public void write (byte[] buffer);
+
+  // queues the buffer and returns without waiting for the socket - used by the
+  // keep-alive timer, which is shared by every connection
+  public void writeLater (byte[] buffer);
+
+  public void close ();
+}
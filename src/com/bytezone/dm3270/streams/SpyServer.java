@@ -1,23 +1,48 @@
 package com.bytezone.dm3270.streams;
 
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 import com.bytezone.dm3270.application.Console;
 import com.bytezone.dm3270.display.Screen;
 import com.bytezone.dm3270.session.Session;
+import com.bytezone.dm3270.streams.SelectorManager.SelectorThread;
 import com.bytezone.dm3270.streams.TelnetSocket.Source;
 import com.bytezone.dm3270.utilities.Site;
 
+// Accepts any number of tn3270 clients (up to maxConnections at a time) and
+// connects each one to the real mainframe. Every connection gets its own pair of
+// TelnetSockets, its own TelnetState and Session, and is saved as spyNN.txt in the
+// spy folder when it closes. The first connection uses the Session that SpyPane is
+// displaying. The accept loop runs on this one thread, and the connections run on
+// the SelectorManager's threads, so the thread count doesn't grow with the number
+// of users. With -spyasync the sockets forward every buffer before it is parsed,
+// and a single SpyParser thread parses and records them from a RecordQueue.
+
 public class SpyServer implements Runnable
 {
-  private Socket clientSocket;
-  private final Socket serverSocket = new Socket ();
+  private static final Pattern RECORDING = Pattern.compile ("[sS][pP][yY]([0-9]{1,4})"
+      + "(\\.[tT][xX][tT])*");
+  private static int maxConnections = 50;
+  private static boolean forwardFirst;
+
   private final TelnetState telnetState;
 
   private final String serverURL;
@@ -25,11 +50,19 @@ public class SpyServer implements Runnable
   private final int serverPort;
   private boolean prevent3270E;
 
-  private ServerSocket clientServerSocket;
-  private TelnetSocket clientTelnetSocket;
-  private TelnetSocket serverTelnetSocket;
+  private ServerSocketChannel clientServerChannel;
+  private final List<SpyConnection> connections = new ArrayList<> ();
+  private final AtomicInteger totalConnections = new AtomicInteger ();
+  private final ExecutorService recorder =
+      Executors.newSingleThreadExecutor (task -> ThreadManager.newThread (task,
+                                                                          "SpyRecorder"));
+  private RecordQueue recordQueue;
   private final Session session;
   private Screen screen;
+  private Path recordingFolder;
+  private int lastRecording = -1;
+  private volatile boolean running;
+  private final AtomicBoolean closed = new AtomicBoolean ();
 
   public SpyServer (Site server, int clientPort, Session session, TelnetState telnetState)
   {
@@ -48,70 +81,234 @@ public class SpyServer implements Runnable
     this.telnetState = telnetState;
   }
 
+  // called from Console.init() when -spymax=n is specified
+  public static void setMaxConnections (int value)
+  {
+    if (value <= 0)
+      throw new IllegalArgumentException ("Connections must be a positive integer");
+    maxConnections = value;
+  }
+
+  // called from Console.init() when -spyasync is specified
+  public static void setForwardFirst (boolean value)
+  {
+    forwardFirst = value;
+  }
+
   private void prevent3270E (boolean value)
   {
     prevent3270E = value;
   }
 
+  // called from SpyPane constructor - connections are not saved if there is no folder
+  public void setRecordingFolder (String folderName)
+  {
+    recordingFolder = folderName == null || folderName.isEmpty () ? null
+        : Paths.get (folderName);
+  }
+
   @Override
   public void run ()
   {
     try
     {
-      // wait for a tn3270 client to connect to us
-      clientServerSocket = new ServerSocket (clientPort);
-      clientSocket = clientServerSocket.accept ();      // blocks
+      // wait for tn3270 clients to connect to us
+      clientServerChannel = ServerSocketChannel.open ();
+      clientServerChannel.bind (new InetSocketAddress (clientPort));
+      running = true;
 
-      // leave a message on the terminal screen while we connect to the MF
-      String message = "Connecting to " + serverURL + ":" + serverPort;
-      OutputStream clientOut = clientSocket.getOutputStream ();
-      clientOut.write (message.getBytes ("ASCII"));
-      clientOut.flush ();
+      if (forwardFirst)
+      {
+        recordQueue = new RecordQueue ();
+        ThreadManager.start (recordQueue, "SpyParser");
+      }
 
-      // now connect to the real mainframe
-      serverSocket.connect (new InetSocketAddress (serverURL, serverPort));
+      while (running)
+      {
+        SocketChannel clientChannel = clientServerChannel.accept ();      // blocks
 
-      // create two SocketListeners and link them to each other
-      clientTelnetSocket =
-          new TelnetSocket (Source.CLIENT, clientSocket, new TelnetListener (
-              Source.CLIENT, session, Console.Function.SPY, screen, telnetState));
-      serverTelnetSocket =
-          new TelnetSocket (Source.SERVER, serverSocket, new TelnetListener (
-              Source.SERVER, session, Console.Function.SPY, screen, telnetState));
+        if (activeConnections () >= maxConnections)
+        {
+          reject (clientChannel);
+          continue;
+        }
 
-      // TelnetSocket.link() will connect both sockets to each other (bidirectional)
-      serverTelnetSocket.link (clientTelnetSocket);
+        try
+        {
+          open (clientChannel);
+        }
+        catch (UnresolvedAddressException e)
+        {
+          System.out.println ("Unknown host");
+          clientChannel.close ();
+        }
+        catch (IOException e)             // just this connection, keep listening
+        {
+          System.out.println ("Connection failed: " + e);
+          clientChannel.close ();
+        }
+      }
+    }
+    catch (ClosedChannelException e)      // caused by closing the clientServerChannel
+    {
+      System.out.println ("tata");
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+    finally
+    {
+      close ();
+    }
+  }
 
-      // stop the session from using tn3270E mode?
-      System.out.printf ("Prevent 3270E: %s%n", prevent3270E);
-      serverTelnetSocket.prevent3270E (prevent3270E);
+  private void open (SocketChannel clientChannel) throws IOException
+  {
+    // the first connection is the one being displayed
+    int connectionNo = totalConnections.getAndIncrement ();
+    boolean first = connectionNo == 0;
+    TelnetState connectionState = first ? telnetState : new TelnetState ();
+    Session connectionSession = first ? session : new Session (connectionState);
+    connectionState.getTraffic ().register ("spy-" + connectionNo);
 
-      // start up the two listeners, each in its own thread 
-      new Thread (clientTelnetSocket).start ();
-      new Thread (serverTelnetSocket).start ();
+    // leave a message on the terminal screen while we connect to the MF
+    String message = "Connecting to " + serverURL + ":" + serverPort;
+    clientChannel.write (ByteBuffer.wrap (message.getBytes ("ASCII")));
+    clientChannel.configureBlocking (false);
 
-      // we're done now, not waiting for any more connections
-      clientServerSocket.close ();
-      clientServerSocket = null;
+    // now start connecting to the real mainframe
+    SocketChannel serverChannel = SocketChannel.open ();
+    serverChannel.configureBlocking (false);
+    try
+    {
+      serverChannel.connect (new InetSocketAddress (serverURL, serverPort));
     }
-    catch (UnknownHostException e)
+    catch (IOException | UnresolvedAddressException e)
     {
-      System.out.println ("Unknown host");
+      serverChannel.close ();
+      throw e;
     }
-    catch (SocketException e)     // caused by closing the clientServerSocket
+
+    // create two TelnetSockets and link them to each other
+    TelnetSocket clientTelnetSocket =
+        new TelnetSocket (Source.CLIENT, clientChannel, new TelnetListener (Source.CLIENT,
+            connectionSession, Console.Function.SPY, screen, connectionState));
+    TelnetSocket serverTelnetSocket =
+        new TelnetSocket (Source.SERVER, serverChannel, new TelnetListener (Source.SERVER,
+            connectionSession, Console.Function.SPY, screen, connectionState));
+
+    // TelnetSocket.link() will connect both sockets to each other (bidirectional)
+    serverTelnetSocket.link (clientTelnetSocket);
+
+    // stop the session from using tn3270E mode?
+    System.out.printf ("Prevent 3270E: %s%n", prevent3270E);
+    serverTelnetSocket.prevent3270E (prevent3270E);
+
+    // the mainframe's side of the traffic, which the spy listeners don't count
+    serverTelnetSocket.setTrafficCounters (connectionState.getTraffic ());
+
+    if (recordQueue != null)
     {
-      System.out.println ("tata");
-      close ();
+      clientTelnetSocket.setRecordQueue (recordQueue);
+      serverTelnetSocket.setRecordQueue (recordQueue);
     }
-    catch (IOException e)
+
+    SpyConnection connection =
+        new SpyConnection (clientTelnetSocket, connectionSession, connectionState);
+    synchronized (connections)
     {
-      e.printStackTrace ();
+      connections.add (connection);
+    }
+    clientTelnetSocket.setCloseAction ( () -> closed (connection));
+
+    // both halves of the connection share a selector thread
+    SelectorThread selectorThread = SelectorManager.getInstance ().nextThread ();
+    clientTelnetSocket.start (selectorThread);
+    serverTelnetSocket.start (selectorThread);
+  }
+
+  private void reject (SocketChannel clientChannel) throws IOException
+  {
+    System.out.printf ("Rejecting connection - %d already active%n", maxConnections);
+    String message = "Too many connections, try again later";
+    clientChannel.write (ByteBuffer.wrap (message.getBytes ("ASCII")));
+    clientChannel.close ();
+  }
+
+  private int activeConnections ()
+  {
+    synchronized (connections)
+    {
+      return connections.size ();
+    }
+  }
+
+  // called on a selector thread when either half of a connection closes
+  private void closed (SpyConnection connection)
+  {
+    synchronized (connections)
+    {
+      connections.remove (connection);
+    }
+    connection.telnetState.getTraffic ().unregister ();
+
+    if (recordingFolder == null)
+      return;
+
+    // the parser may still have records for this session
+    Runnable save = () ->
+    {
+      if (connection.session.size () > 0)
+        recorder.execute ( () -> save (connection.session));
+    };
+
+    if (recordQueue != null)
+      recordQueue.execute (save);
+    else
+      save.run ();
+  }
+
+  // called on the SpyRecorder thread
+  private void save (Session session)
+  {
+    Path path = nextRecording ();
+    if (path != null)
+    {
+      session.save (path.toFile ());
+      System.out.println ("Session saved as " + path);
     }
   }
 
-  public TelnetSocket getListener (Source source)
+  private Path nextRecording ()
   {
-    return source == Source.CLIENT ? clientTelnetSocket : serverTelnetSocket;
+    if (lastRecording < 0)
+    {
+      lastRecording = 0;
+      try (Stream<Path> files = Files.list (recordingFolder))
+      {
+        files.forEach (path ->
+        {
+          Matcher matcher = RECORDING.matcher (path.getFileName ().toString ());
+          if (matcher.matches ())
+            lastRecording =
+                Math.max (lastRecording, Integer.parseInt (matcher.group (1)));
+        });
+      }
+      catch (IOException e)
+      {
+        e.printStackTrace ();
+        return null;
+      }
+    }
+
+    if (lastRecording >= 9999)
+    {
+      System.out.println ("No more recording file names available");
+      return null;
+    }
+
+    return recordingFolder.resolve (String.format ("spy%02d.txt", ++lastRecording));
   }
 
   public void setScreen (Screen screen)
@@ -121,27 +318,57 @@ public class SpyServer implements Runnable
 
   public void close ()
   {
-    if (clientServerSocket != null)
+    running = false;
+    if (!closed.compareAndSet (false, true))
+      return;
+
+    if (clientServerChannel != null)
       try
       {
-        clientServerSocket.close ();
-        clientServerSocket = null;
+        clientServerChannel.close ();
+        clientServerChannel = null;
       }
       catch (IOException e)
       {
         e.printStackTrace ();
       }
 
-    if (clientTelnetSocket != null)
+    List<SpyConnection> openConnections;
+    synchronized (connections)
+    {
+      openConnections = new ArrayList<> (connections);
+    }
+    for (SpyConnection connection : openConnections)
+      connection.clientTelnetSocket.close ();       // also closes its partner
+
+    if (recordQueue != null)
     {
-      clientTelnetSocket.close ();
-      clientTelnetSocket = null;
+      recordQueue.execute ( () -> recorder.shutdown ());    // after any saves
+      recordQueue.close ();                         // later records are dropped
+      System.out.println (recordQueue.getSummary ());
     }
+    else
+      recorder.shutdown ();                         // after any pending saves
+
+    System.out.println (TelnetSocket.getProxyLatency ().getSummary ());
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // The sockets and the session that belong to one client
+  // ---------------------------------------------------------------------------------//
+
+  private static class SpyConnection
+  {
+    private final TelnetSocket clientTelnetSocket;      // closing it closes both
+    private final Session session;
+    private final TelnetState telnetState;
 
-    if (serverTelnetSocket != null)
+    SpyConnection (TelnetSocket clientTelnetSocket, Session session,
+        TelnetState telnetState)
     {
-      serverTelnetSocket.close ();
-      serverTelnetSocket = null;
+      this.clientTelnetSocket = clientTelnetSocket;
+      this.session = session;
+      this.telnetState = telnetState;
     }
   }
 }
\ No newline at end of file
@@ -38,6 +38,7 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
   private boolean debug;
 
   private final TelnetProcessor telnetProcessor = new TelnetProcessor (this);
+  private final ScreenUpdateQueue screenUpdateQueue;
 
   // Use this when recording the session in SPY mode, or replaying the session
   // in REPLAY mode.
@@ -50,6 +51,9 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
 
     this.source = source;         // are we listening to a SERVER or a CLIENT?
     this.session = session;       // where we store the session records
+
+    screenUpdateQueue = function == Function.TERMINAL
+        ? new ScreenUpdateQueue (screen, this::processMessage) : null;
   }
 
   // Use this when not recording the session and running in TERMINAL mode.
@@ -62,6 +66,8 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
     this.source = Source.SERVER;                  // listening to a server
     this.session = null;
 
+    screenUpdateQueue = new ScreenUpdateQueue (screen, this::processMessage);
+
     assert function == Function.TERMINAL;
   }
 
@@ -70,7 +76,7 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
   // Converts buffer arrays to Messages.
 
   // Called from Session when recreating a session from a file     - REPLAY mode
-  // Called from a TelnetSocket thread whilst eavesdropping        - SPY mode
+  // Called from a TelnetSocket on a selector thread whilst spying - SPY mode
   // Called from a TerminalServer thread during a Terminal session - TERMINAL mode
 
   @Override
@@ -89,10 +95,43 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
       telnetState.setLastAccess (dateTime, buffer.length);
   }
 
+  // Called from the socket readers with a pooled buffer, which is read in place. The
+  // TelnetProcessor copies whatever it needs into its record buffer, so the pooled
+  // buffer can be released as soon as it returns.
+  @Override
+  public synchronized void listen (Source source, PooledBuffer buffer,
+      LocalDateTime dateTime, boolean genuine)
+  {
+    assert source == this.source : "Incorrect source: " + source + ", expecting: "
+        + this.source;
+
+    try
+    {
+      currentDateTime = dateTime;
+      currentGenuine = genuine;
+
+      telnetProcessor.listen (buffer.array (), buffer.offset (), buffer.length ());
+
+      if (function == Function.TERMINAL)
+        telnetState.setLastAccess (dateTime, buffer.length ());
+    }
+    finally
+    {
+      buffer.release ();
+    }
+  }
+
   @Override
   public void close ()
   {
-    Platform.runLater ( () -> screen.displayText (telnetState.getSummary ()));
+    // show the summary once the session thread has processed the final screens
+    screenUpdateQueue.close ( () ->
+    {
+      String summary = telnetState.getSummary () + "\n\n"
+          + BufferPool.getInstance ().getSummary () + "\n\n" + WriteQueue.getSummary ()
+          + "\n" + screenUpdateQueue.getSummary ();
+      Platform.runLater ( () -> screen.displayText (summary));
+    });
   }
 
   @Override
@@ -133,6 +172,7 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
           command = Command.getCommand (data, offset, length);
         else
           command = Command.getReply (data, offset, length);
+        telnetState.getTraffic ().count (command);
 
         if (currentCommandHeader != null)
           command = new TN3270ExtendedCommand (currentCommandHeader, (Command) command);
@@ -209,7 +249,7 @@ public class TelnetListener implements BufferListener, TelnetCommandProcessor
       if (sessionRecordType == SessionRecordType.TELNET)      // no gui involved
         processMessage (message);
       else
-        Platform.runLater ( () -> processMessage (message));
+        screenUpdateQueue.add (message);    // may wait for the session thread to catch up
     }
   }
 
@@ -1,65 +1,76 @@
 package com.bytezone.dm3270.streams;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import com.bytezone.dm3270.streams.SelectorManager.SelectorThread;
 import com.bytezone.dm3270.telnet.TelnetCommand;
 import com.bytezone.dm3270.telnet.TelnetSubcommand;
 import com.bytezone.dm3270.utilities.Dm3270Utility;
 
-public class TelnetSocket implements Runnable
+public class TelnetSocket implements SelectorHandler
 {
   private static final boolean debug = false;
 
   private static final boolean GENUINE = true;
   private static final boolean MITM = false;
 
+  // time from a read completing to the bytes being passed on to the partner
+  private static final LatencyRecorder proxyLatency =
+      new LatencyRecorder ("Proxy latency");
+
   private final String name;
   private final Source source;
 
-  private Socket socket;
-  private InputStream inputStream;
-  private OutputStream outputStream;
+  private final SocketChannel channel;
+  private SelectionKey key;
+  private SelectorThread selectorThread;
+  private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<> ();
 
-  private final byte[] buffer = new byte[4096];
-  private int bytesRead;
+  private final BufferPool bufferPool = BufferPool.getInstance ();
 
   private final BufferListener telnetListener;
   private volatile boolean running;
+  private final AtomicBoolean closed = new AtomicBoolean ();
+  private Runnable closeAction;
 
   private TelnetSocket partner;
   private boolean prevent3270E;
+  private RecordQueue recordQueue;        // null unless forwarding first
+  private boolean recordingPaused;        // the parser has fallen behind
+  private TrafficCounters traffic;        // only for the socket to the mainframe
 
   public enum Source
   {
     CLIENT, SERVER
   }
 
-  // Only used by a SpyServer, which creates two SocketListeners. Each SocketListener
-  // copies its inputStream to its partner's outputStream after sending a copy to
-  // the listener.
+  // Only used by a SpyServer, which creates two TelnetSockets for each connection
+  // and runs both of them on the same SelectorManager thread. Each TelnetSocket
+  // copies whatever arrives on its channel to its partner's channel after sending a
+  // copy to the listener (or before, when forwarding first). If the partner can't
+  // send it straight away, this side stops reading until the partner has caught up.
 
-  public TelnetSocket (Source source, Socket socket, BufferListener listener)
-      throws IOException
+  public TelnetSocket (Source source, SocketChannel channel, BufferListener listener)
   {
     if (source == null)
       throw new IllegalArgumentException ("Source cannot be null");
-    if (socket == null)
-      throw new IllegalArgumentException ("Socket cannot be null");
+    if (channel == null)
+      throw new IllegalArgumentException ("Channel cannot be null");
     if (listener == null)
       throw new IllegalArgumentException ("Listener cannot be null");
 
     this.name = source == Source.CLIENT ? "Client" : "Server";
     this.source = source;
-    this.socket = socket;
+    this.channel = channel;
     this.telnetListener = listener;
 
-    this.inputStream = socket.getInputStream ();
-    this.outputStream = socket.getOutputStream ();
-
     if (debug)
     {
       System.out.printf ("Creating TelnetSocket for %s%n", source);
@@ -80,126 +91,294 @@ public class TelnetSocket implements Runnable
     prevent3270E = value;
   }
 
-  @Override
-  public void run ()
+  // Called from SpyServer.run() when -spyasync is specified. Each buffer is sent to
+  // the partner as soon as it arrives, and the listener gets it later from the
+  // RecordQueue's parser thread.
+  void setRecordQueue (RecordQueue recordQueue)
+  {
+    this.recordQueue = recordQueue;
+  }
+
+  // Called from SpyServer.open() for the SERVER socket, so that the connection's
+  // counters show what was read from and written to the mainframe, the same as a
+  // terminal connection's do. The TelnetListeners only count in TERMINAL mode.
+  void setTrafficCounters (TrafficCounters traffic)
+  {
+    if (source != Source.SERVER)
+      throw new IllegalStateException ("Only a SERVER socket can do that");
+    this.traffic = traffic;
+  }
+
+  public static LatencyRecorder getProxyLatency ()
+  {
+    return proxyLatency;
+  }
+
+  // called from SpyServer.run() - closing either socket closes both of them
+  void setCloseAction (Runnable closeAction)
+  {
+    this.closeAction = closeAction;
+  }
+
+  // called from SpyServer.run() with the same thread for both partners
+  void start (SelectorThread selectorThread)
   {
     running = true;
-    while (running)
+    this.selectorThread = selectorThread;
+    selectorThread.register (this, channel);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called on the selector thread
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public void setKey (SelectionKey key)
+  {
+    this.key = key;
+  }
+
+  @Override
+  public void finishConnect ()
+  {
+    try
+    {
+      if (channel.finishConnect ())
+        flush ();                       // anything the client sent while we waited
+    }
+    catch (IOException e)
+    {
+      System.out.println (name + " cannot connect: " + e);
+      close ();
+    }
+  }
+
+  @Override
+  public void read ()
+  {
+    PooledBuffer message = bufferPool.acquire ();
+    try
     {
-      if (Thread.interrupted ())
+      int bytesRead = channel.read (message.byteBuffer ());
+      if (bytesRead < 0)
       {
-        System.out.println ("TelnetSocket interrupted");
-        break;
+        System.out.println (name + " has no data on input stream");
+        close ();
+        return;
       }
-      try
+      if (bytesRead == 0)
+        return;
+      message.setLength (bytesRead);
+
+      if (traffic != null)
+        traffic.read (bytesRead);
+
+      if (debug)
       {
-        bytesRead = inputStream.read (buffer);      // blocks
-        if (bytesRead == -1)
-        {
-          System.out.println (name + " has no data on input stream");
-          close ();
-          return;
-        }
-
-        if (debug)
-        {
-          System.out.println (toString ());
-          System.out.println ("reading:");
-          System.out.println (Dm3270Utility.toHex (buffer, 0, bytesRead));
-        }
-
-        // take a copy of the input buffer and send it to the TelnetListener
-        byte[] message = new byte[bytesRead];
-        System.arraycopy (buffer, 0, message, 0, message.length);
-        telnetListener.listen (source, message, LocalDateTime.now (), GENUINE);
-
-        if (prevent3270E && fakeReplySent ())   // did we reject a request for 3270-E?
-          continue;
-
-        if (partner != null)
-          partner.write (message);              // write to partner's OutputStream
+        System.out.println (toString ());
+        System.out.println ("reading:");
+        System.out.println (Dm3270Utility.toHex (message.array (), message.offset (),
+                                                 bytesRead));
       }
-      catch (IOException e)
+
+      long start = System.nanoTime ();
+      LocalDateTime dateTime = LocalDateTime.now ();
+
+      // Unless we are forwarding first, the listener parses and records the buffer
+      // before it goes anywhere. It gets its own reference to the buffer, and we
+      // keep ours until the partner has been sent the same bytes.
+      if (recordQueue == null)
+        telnetListener.listen (source, message.retain (), dateTime, GENUINE);
+
+      byte[] fakeReply = null;
+      if (prevent3270E && isTN3270ERequest (message))
+        fakeReply = rejectTN3270E ();                 // don't send it to partner
+      else if (partner != null)                       // write to partner's channel
+        partner.write (message.array (), message.offset (), message.length ());
+
+      proxyLatency.record (System.nanoTime () - start);
+
+      if (recordQueue != null)
+        recordQueue.add (telnetListener, source, message.retain (), dateTime, GENUINE);
+
+      // send a ManInTheMiddle notification on behalf of the client
+      if (fakeReply != null && recordQueue == null)
+        partner.telnetListener.listen (partner.source, fakeReply, dateTime, MITM);
+      else if (fakeReply != null)
+        recordQueue.add (partner.telnetListener, partner.source, fakeReply, dateTime,
+                         MITM);
+
+      // stop reading until the parser catches up, rather than filling the ring
+      if (recordQueue != null
+          && recordQueue.pauseIfBackedUp ( () -> selectorThread.execute (this::resume)))
       {
-        if (running)
-          System.out.println (name + " closing due to IOException: " + e);
-        else
-          System.out.println (name + " quitting");
-        close ();
-        return;
+        recordingPaused = true;
+        setInterest ();
       }
     }
-
-    System.out.println (name + " closing - bye everyone");
-    close ();
+    catch (IOException e)
+    {
+      if (running)
+        System.out.println (name + " closing due to IOException: " + e);
+      else
+        System.out.println (name + " quitting");
+      close ();
+    }
+    finally
+    {
+      message.release ();
+    }
   }
 
-  private void write (byte[] buffer)
+  @Override
+  public void flush ()
   {
+    if (!channel.isConnected ())
+      return;                           // finishConnect() will call us again
+
     try
     {
-      outputStream.write (buffer);
-      outputStream.flush ();
+      ByteBuffer pending;
+      while ((pending = pendingWrites.peek ()) != null)
+      {
+        channel.write (pending);
+        if (pending.hasRemaining ())
+          break;                        // socket buffer is full, wait for OP_WRITE
+        pendingWrites.poll ();
+      }
+      updateInterest ();
     }
     catch (IOException e)
     {
-      e.printStackTrace ();
+      System.out.println (name + " closing due to IOException: " + e);
+      close ();
+    }
+  }
+
+  // Writes as much as the socket will take now, and keeps a copy of the rest, since
+  // the caller's buffer is about to be reused.
+  private void write (byte[] buffer, int offset, int length) throws IOException
+  {
+    if (!running)
+      return;
+
+    if (traffic != null)
+      traffic.written (length);
+
+    ByteBuffer data = ByteBuffer.wrap (buffer, offset, length);
+    if (pendingWrites.isEmpty () && channel.isConnected ())
+    {
+      channel.write (data);
+      WriteQueue.countWrite (1);
+    }
+
+    if (data.hasRemaining ())
+    {
+      ByteBuffer remainder = ByteBuffer.allocate (data.remaining ());
+      remainder.put (data);
+      remainder.flip ();
+      pendingWrites.add (remainder);
+      updateInterest ();
     }
 
     if (debug)
     {
       System.out.println (toString ());
       System.out.println ("writing:");
-      System.out.println (Dm3270Utility.toHex (buffer));
+      System.out.println (Dm3270Utility.toHex (buffer, offset, length));
     }
   }
 
-  private boolean fakeReplySent () throws IOException
+  private void write (byte[] buffer) throws IOException
   {
-    // If the server sends a request for us to DO 3270E and we don't want to, then
-    // send a fake WONT reply instead of passing on the request.
-    if (source == Source.SERVER                     //
-        && bytesRead == 3                           //
-        && buffer[0] == TelnetCommand.IAC           //
-        && buffer[1] == TelnetCommand.DO            //
-        && buffer[2] == TelnetSubcommand.TN3270E)
-    {
-      byte[] reply = new byte[3];
+    write (buffer, 0, buffer.length);
+  }
 
-      reply[0] = TelnetCommand.IAC;
-      reply[1] = TelnetCommand.WONT;
-      reply[2] = TelnetSubcommand.TN3270E;
+  // called from the RecordQueue's parser thread through the selector thread
+  private void resume ()
+  {
+    recordingPaused = false;
+    setInterest ();
+  }
 
-      write (reply);     // reply directly, don't send it to partner
+  // stop reading while the partner has data it can't send yet
+  private void updateInterest ()
+  {
+    setInterest ();
+    if (partner != null)
+      partner.setInterest ();
+  }
 
-      // send a ManInTheMiddle notification on behalf of the client
-      partner.telnetListener.listen (partner.source, reply, LocalDateTime.now (), MITM);
+  private void setInterest ()
+  {
+    if (key == null || !key.isValid () || channel.isConnectionPending ())
+      return;
+
+    int ops = 0;
+    if ((partner == null || partner.pendingWrites.isEmpty ()) && !recordingPaused)
+      ops |= SelectionKey.OP_READ;
+    if (!pendingWrites.isEmpty ())
+      ops |= SelectionKey.OP_WRITE;
+    key.interestOps (ops);
+  }
 
-      return true;
-    }
-    return false;
+  // If the server sends a request for us to DO 3270E and we don't want to, then
+  // send a fake WONT reply instead of passing on the request.
+  private boolean isTN3270ERequest (PooledBuffer message)
+  {
+    return source == Source.SERVER                  //
+        && message.length () == 3                   //
+        && message.get (0) == TelnetCommand.IAC     //
+        && message.get (1) == TelnetCommand.DO      //
+        && message.get (2) == TelnetSubcommand.TN3270E;
   }
 
+  private byte[] rejectTN3270E () throws IOException
+  {
+    byte[] reply = new byte[3];
+
+    reply[0] = TelnetCommand.IAC;
+    reply[1] = TelnetCommand.WONT;
+    reply[2] = TelnetSubcommand.TN3270E;
+
+    write (reply);     // reply directly
+
+    return reply;
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called from any thread
+  // ---------------------------------------------------------------------------------//
+
+  @Override
   public void close ()
   {
+    if (!closed.compareAndSet (false, true))
+      return;
+
     running = false;
 
     try
     {
-      if (socket != null)
-        socket.close ();
+      if (key != null)
+        key.cancel ();
+      channel.close ();
     }
     catch (IOException e)
     {
       e.printStackTrace ();
     }
 
-    socket = null;
-    inputStream = null;
-    outputStream = null;
+    pendingWrites.clear ();
 
     if (debug)
       System.out.printf ("Closing %s%n", toString ());
+
+    if (partner != null)
+      partner.close ();
+
+    if (closeAction != null)
+      closeAction.run ();
   }
 
   @Override
@@ -5,17 +5,26 @@ import java.time.format.DateTimeFormatter;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 import com.bytezone.dm3270.display.ScreenDimensions;
+import com.bytezone.dm3270.streams.TrafficCounters.CommandType;
 import com.bytezone.dm3270.telnet.TN3270ExtendedSubcommand.Function;
 
-public class TelnetState implements Runnable
+public class TelnetState
 {
   private static final DateTimeFormatter formatter =
       DateTimeFormatter.ofPattern ("dd MMM uuuu HH:mm:ss.S");
   private static byte[] noOp = { (byte) 0xFF, (byte) 0xF1 };
 
+  public static final int DEFAULT_KEEP_ALIVE = 120;       // seconds
+
+  // one thread checks every connection's keep-alive timer
+  private static ScheduledExecutorService keepAliveScheduler;
+
   private final String[] terminalTypes =
       { "", "", "IBM-3278-2-E", "IBM-3278-3-E", "IBM-3278-4-E", "IBM-3278-5-E" };
 
@@ -37,21 +46,19 @@ public class TelnetState implements Runnable
   private String luName;
 
   private String terminal = "";
-  private TerminalServer terminalServer;
+  private volatile ServerConnection terminalServer;
   private final boolean debug = false;
 
   // IO
-  private AtomicLong lastAccess;
-  private volatile boolean running = false;
-  private Thread thread;
+  private volatile long lastAccess = System.nanoTime ();
+  private volatile int keepAliveInterval = DEFAULT_KEEP_ALIVE;      // 0 = never
+  private ScheduledFuture<?> keepAliveTimer;
+  private boolean keepAliveRunning;                                 // guarded by this
 
   private final ScreenDimensions primary = new ScreenDimensions (24, 80);
   private ScreenDimensions secondary = new ScreenDimensions (24, 80);
 
-  private int totalReads;
-  private int totalWrites;
-  private int totalBytesRead;
-  private int totalBytesWritten;
+  private final TrafficCounters traffic = new TrafficCounters ();
 
   public TelnetState ()
   {
@@ -63,18 +70,29 @@ public class TelnetState implements Runnable
     setDoTerminalType (true);
   }
 
-  public void setTerminalServer (TerminalServer terminalServer)
+  public synchronized void setTerminalServer (ServerConnection terminalServer)
   {
     this.terminalServer = terminalServer;
-    thread = new Thread (this);
-    thread.start ();
+    lastAccess = System.nanoTime ();
+    keepAliveRunning = true;
+    scheduleKeepAlive (TimeUnit.SECONDS.toNanos (keepAliveInterval));
+  }
+
+  // called from ConsolePane.connect() with the site's 'keepalive' parameter
+  public void setKeepAliveInterval (int seconds)
+  {
+    keepAliveInterval = Math.max (0, seconds);
+  }
+
+  public int getKeepAliveInterval ()
+  {
+    return keepAliveInterval;
   }
 
   public void setLastAccess (LocalDateTime dateTime, int bytes)
   {
-    lastAccess.set (System.currentTimeMillis ());
-    ++totalReads;
-    totalBytesRead += bytes;
+    lastAccess = System.nanoTime ();
+    traffic.read (bytes);
 
     if (debug)
       System.out.printf ("Read  : %,6d %s%n", bytes, formatter.format (dateTime));
@@ -85,61 +103,80 @@ public class TelnetState implements Runnable
     if (terminalServer != null)
       terminalServer.write (buffer);
 
-    if (lastAccess != null)
-      lastAccess.set (System.currentTimeMillis ());
-
-    ++totalWrites;
-    totalBytesWritten += buffer.length;
+    written (buffer.length);
 
     if (debug)
       System.out.printf ("Write : %,6d %s%n", buffer.length,
                          formatter.format (LocalDateTime.now ()));
   }
 
-  // This thread exists simply to keep the connection alive. It sleeps for a
-  // certain period, and when it wakes it issues a NOOP if nothing else has
-  // communicated with the server.
+  private static synchronized ScheduledExecutorService getKeepAliveScheduler ()
+  {
+    if (keepAliveScheduler == null)
+      keepAliveScheduler = Executors.newSingleThreadScheduledExecutor (task ->
+      {
+        Thread thread = new Thread (task, "KeepAlive");
+        thread.setDaemon (true);
+        return thread;
+      });
+    return keepAliveScheduler;
+  }
 
-  @Override
-  public void run ()
+  private synchronized void scheduleKeepAlive (long delay)
   {
-    long lastTimeIChecked;
-    lastAccess = new AtomicLong (System.currentTimeMillis ());
-    running = true;
-    long limit = 120;      // seconds to wait
+    if (keepAliveInterval == 0 || !keepAliveRunning)
+      return;
 
-    while (running)
-    {
-      try
-      {
-        lastTimeIChecked = lastAccess.get ();
-        long delay = (System.currentTimeMillis () - lastTimeIChecked) / 1000;
-        long sleep = limit - delay;
+    keepAliveTimer = getKeepAliveScheduler ().schedule (this::checkKeepAlive, delay,
+                                                        TimeUnit.NANOSECONDS);
+  }
 
-        if (Thread.currentThread ().isInterrupted ())
-          return;
+  // Keeps the connection alive by sending a NOOP when nothing else has gone to or
+  // come from the server for the keep-alive interval. Traffic only records the time,
+  // and the timer works out when it is next due each time it fires, so it is
+  // re-armed by any read or write without touching the scheduler.
+  private void checkKeepAlive ()
+  {
+    if (keepAliveInterval == 0)
+      return;
 
-        if (sleep > 1)
-          Thread.sleep (sleep * 1000);
+    long interval = TimeUnit.SECONDS.toNanos (keepAliveInterval);
+    long idle = System.nanoTime () - lastAccess;
 
-        if (lastTimeIChecked == lastAccess.get ())
-          write (noOp);
-      }
-      catch (InterruptedException e)
-      {
-        if (running)
-          e.printStackTrace ();
-        return;
-      }
+    if (idle >= interval)
+    {
+      sendNoOp ();
+      idle = 0;
     }
+
+    scheduleKeepAlive (interval - idle);
   }
 
-  public void close ()
+  // The timer thread is shared by every connection, so it only queues the NOOP. The
+  // connection sends it from one of its own threads, and a peer that has stopped
+  // reading can't hold up anybody else's keep-alive.
+  private void sendNoOp ()
   {
-    if (thread != null)
+    ServerConnection terminalServer = this.terminalServer;
+    if (terminalServer != null)
+      terminalServer.writeLater (noOp);
+
+    written (noOp.length);
+  }
+
+  private void written (int length)
+  {
+    lastAccess = System.nanoTime ();
+    traffic.written (length);
+  }
+
+  public synchronized void close ()
+  {
+    keepAliveRunning = false;
+    if (keepAliveTimer != null)
     {
-      running = false;
-      thread.interrupt ();
+      keepAliveTimer.cancel (false);
+      keepAliveTimer = null;
     }
   }
 
@@ -153,16 +190,27 @@ public class TelnetState implements Runnable
     return secondary;
   }
 
+  public TrafficCounters getTraffic ()
+  {
+    return traffic;
+  }
+
   public String getSummary ()
   {
+    TrafficSnapshot snapshot = traffic.getSnapshot ();
+    long totalReads = snapshot.reads;
+    long totalWrites = snapshot.writes;
+    long totalBytesRead = snapshot.bytesRead;
+    long totalBytesWritten = snapshot.bytesWritten;
+
     if (totalReads == 0 || totalWrites == 0)
       return "Nothing to report";
 
-    int averageReads = totalBytesRead / totalReads;
-    int averageWrites = totalBytesWritten / totalWrites;
-    int totalIOBytes = totalBytesRead + totalBytesWritten;
-    int totalIO = totalReads + totalWrites;
-    int averageIO = totalIOBytes / totalIO;
+    long averageReads = totalBytesRead / totalReads;
+    long averageWrites = totalBytesWritten / totalWrites;
+    long totalIOBytes = totalBytesRead + totalBytesWritten;
+    long totalIO = totalReads + totalWrites;
+    long averageIO = totalIOBytes / totalIO;
 
     StringBuilder text = new StringBuilder ();
 
@@ -175,6 +223,9 @@ public class TelnetState implements Runnable
     text.append (String.format ("         -------   ----------   -------%n"));
     text.append (String.format ("          %,5d       %,7d     %,4d %n", totalIO,
                                 totalIOBytes, averageIO));
+    text.append (String.format ("%n"));
+    for (CommandType type : CommandType.values ())
+      text.append (String.format ("%-12s %,5d%n", type, snapshot.getCommands (type)));
 
     return text.toString ();
   }
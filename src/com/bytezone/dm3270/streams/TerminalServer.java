@@ -10,7 +10,7 @@ import java.time.LocalDateTime;
 import com.bytezone.dm3270.streams.TelnetSocket.Source;
 import com.bytezone.dm3270.utilities.Dm3270Utility;
 
-public class TerminalServer implements Runnable
+public class TerminalServer implements Runnable, ServerConnection
 {
   private final int serverPort;
   private final String serverURL;
@@ -18,8 +18,9 @@ public class TerminalServer implements Runnable
   private InputStream serverIn;
   private OutputStream serverOut;
 
-  private final byte[] buffer = new byte[4096];
+  private final BufferPool bufferPool = BufferPool.getInstance ();
   private int bytesRead;
+  private volatile WriteQueue writeQueue;
   private volatile boolean running;
 
   private final BufferListener telnetListener;
@@ -41,6 +42,8 @@ public class TerminalServer implements Runnable
 
       serverIn = serverSocket.getInputStream ();
       serverOut = serverSocket.getOutputStream ();
+      WriteQueue writeQueue = new WriteQueue (serverOut);
+      this.writeQueue = writeQueue;
 
       running = true;
       while (running)
@@ -51,9 +54,23 @@ public class TerminalServer implements Runnable
           break;
         }
 
-        bytesRead = serverIn.read (buffer);
+        // read straight into a pooled buffer and hand it to the listener, which
+        // releases it when it has finished
+        PooledBuffer message = bufferPool.acquire ();
+        try
+        {
+          bytesRead = serverIn.read (message.array (), message.offset (),
+                                     message.capacity ());
+        }
+        catch (IOException e)
+        {
+          message.release ();
+          throw e;
+        }
+
         if (bytesRead < 0)
         {
+          message.release ();
           close ();
           break;
         }
@@ -61,16 +78,20 @@ public class TerminalServer implements Runnable
         if (Thread.currentThread ().isInterrupted ())
           System.out.println ("TerminalServer was interrupted!");
 
+        message.setLength (bytesRead);
+
         if (debug)
         {
           System.out.println (toString ());
           System.out.println ("reading:");
-          System.out.println (Dm3270Utility.toHex (buffer, 0, bytesRead));
+          System.out.println (Dm3270Utility.toHex (message.array (), message.offset (),
+                                                   bytesRead));
         }
 
-        byte[] message = new byte[bytesRead];
-        System.arraycopy (buffer, 0, message, 0, bytesRead);
+        // replies written by the listener on this thread are sent together
+        writeQueue.beginTurn ();
         telnetListener.listen (Source.SERVER, message, LocalDateTime.now (), true);
+        writeQueue.endTurn ();
       }
     }
     catch (IOException e)
@@ -83,9 +104,11 @@ public class TerminalServer implements Runnable
     }
   }
 
-  synchronized void write (byte[] buffer)
+  @Override
+  public void write (byte[] buffer)
   {
-    if (serverOut == null)
+    WriteQueue writeQueue = this.writeQueue;
+    if (writeQueue == null)
     {
       // the no-op may come here if the program is not closed after disconnection
       System.out.println ("serverOut is null in TerminalServer");
@@ -94,8 +117,7 @@ public class TerminalServer implements Runnable
 
     try
     {
-      serverOut.write (buffer);
-      serverOut.flush ();
+      writeQueue.write (buffer);
     }
     catch (IOException e)
     {
@@ -110,6 +132,22 @@ public class TerminalServer implements Runnable
     }
   }
 
+  // the buffer is sent on a thread of its own, so the caller can't block
+  @Override
+  public void writeLater (byte[] buffer)
+  {
+    WriteQueue writeQueue = this.writeQueue;
+    if (writeQueue == null)
+    {
+      System.out.println ("serverOut is null in TerminalServer");
+      return;
+    }
+
+    writeQueue.enqueue (buffer);
+    writeQueue.flushLater ();
+  }
+
+  @Override
   public void close ()
   {
     try
@@ -118,6 +156,7 @@ public class TerminalServer implements Runnable
 
       serverIn = null;
       serverOut = null;
+      writeQueue = null;
 
       if (serverSocket != null)
         serverSocket.close ();
@@ -0,0 +1,97 @@
+package com.bytezone.dm3270.streams;
+
+import java.lang.reflect.Method;
+
+// Creates the threads that run the blocking read loops (TerminalServer, SpyServer,
+// MainframeServer).
+// In VIRTUAL mode each loop gets a virtual thread, so the simple blocking code can
+// be kept while thousands of sessions share a handful of carrier threads.
+// Virtual threads are looked up reflectively so that the code still compiles and
+// runs (with platform threads) on a JVM older than Java 21.
+
+public class ThreadManager
+{
+  private static final Method ofVirtual;
+  private static final Method builderName;
+  private static final Method builderUnstarted;
+
+  private static Mode mode = Mode.PLATFORM;
+
+  public enum Mode
+  {
+    PLATFORM, VIRTUAL
+  }
+
+  static
+  {
+    Method virtual = null;
+    Method name = null;
+    Method unstarted = null;
+
+    try
+    {
+      Class<?> builderClass = Class.forName ("java.lang.Thread$Builder");
+      virtual = Thread.class.getMethod ("ofVirtual");
+      name = builderClass.getMethod ("name", String.class);
+      unstarted = builderClass.getMethod ("unstarted", Runnable.class);
+    }
+    catch (ClassNotFoundException | NoSuchMethodException e)
+    {
+      virtual = null;       // not available on this JVM
+    }
+
+    ofVirtual = virtual;
+    builderName = name;
+    builderUnstarted = unstarted;
+  }
+
+  // called from Console.init() when -virtual is specified
+  public static void setMode (Mode newMode)
+  {
+    if (newMode == Mode.VIRTUAL && !virtualThreadsAvailable ())
+    {
+      System.out.println ("Virtual threads need Java 21 - using platform threads");
+      newMode = Mode.PLATFORM;
+    }
+    mode = newMode;
+  }
+
+  public static Mode getMode ()
+  {
+    return mode;
+  }
+
+  public static boolean virtualThreadsAvailable ()
+  {
+    return ofVirtual != null;
+  }
+
+  public static Thread start (Runnable task, String name)
+  {
+    Thread thread = newThread (task, name);
+    thread.start ();
+    return thread;
+  }
+
+  public static Thread newThread (Runnable task, String name)
+  {
+    return newThread (mode, task, name);
+  }
+
+  // also used by ThreadModeBenchmark to compare the two modes
+  public static Thread newThread (Mode mode, Runnable task, String name)
+  {
+    if (mode == Mode.VIRTUAL && ofVirtual != null)
+      try
+      {
+        Object builder = builderName.invoke (ofVirtual.invoke (null), name);
+        return (Thread) builderUnstarted.invoke (builder, task);
+      }
+      catch (ReflectiveOperationException e)
+      {
+        e.printStackTrace ();
+      }
+
+    return new Thread (task, name);
+  }
+}
@@ -0,0 +1,284 @@
+package com.bytezone.dm3270.streams;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.bytezone.dm3270.buffers.ReplyBuffer;
+import com.bytezone.dm3270.commands.AIDCommand;
+import com.bytezone.dm3270.commands.EraseAllUnprotectedCommand;
+import com.bytezone.dm3270.commands.WriteCommand;
+import com.bytezone.dm3270.commands.WriteStructuredFieldCommand;
+
+// Traffic counters for one connection. Reads are counted on the socket thread, while
+// writes and commands can come from the FX thread, the keep-alive timer or a selector
+// thread, so every counter is a LongAdder. Each connection also adds to the totals for
+// the whole process. Both can be registered with the platform MBeanServer (as
+// com.bytezone.dm3270:type=Traffic,name=xxx), or sampled every so often with
+// scheduleSnapshots().
+
+public class TrafficCounters implements TrafficCountersMXBean
+{
+  private static final String DOMAIN = "com.bytezone.dm3270";
+  private static final TrafficCounters totals = new TrafficCounters (null);
+  private static boolean totalsRegistered;
+  private static ScheduledExecutorService snapshotScheduler;
+
+  public enum CommandType
+  {
+    WRITE ("Write"), ERASE_WRITE ("Erase Write"), WSF ("WSF"), EAU ("EAU"), AID ("AID");
+
+    private final String name;
+
+    private CommandType (String name)
+    {
+      this.name = name;
+    }
+
+    @Override
+    public String toString ()
+    {
+      return name;
+    }
+  }
+
+  private final TrafficCounters parent;
+  private final long created = System.currentTimeMillis ();
+
+  private final LongAdder reads = new LongAdder ();
+  private final LongAdder bytesRead = new LongAdder ();
+  private final LongAdder writes = new LongAdder ();
+  private final LongAdder bytesWritten = new LongAdder ();
+  private final LongAdder[] commands = new LongAdder[CommandType.values ().length];
+
+  private ObjectName objectName;                // guarded by this
+
+  public TrafficCounters ()
+  {
+    this (totals);
+  }
+
+  private TrafficCounters (TrafficCounters parent)
+  {
+    this.parent = parent;
+    for (int i = 0; i < commands.length; i++)
+      commands[i] = new LongAdder ();
+  }
+
+  public static TrafficCounters getTotals ()
+  {
+    return totals;
+  }
+
+  // called from TelnetState.setLastAccess()
+  // called from TelnetSocket.read() in spy mode
+  void read (int bytes)
+  {
+    reads.increment ();
+    bytesRead.add (bytes);
+    if (parent != null)
+      parent.read (bytes);
+  }
+
+  // called from TelnetState.write()
+  // called from TelnetSocket.write() in spy mode
+  void written (int bytes)
+  {
+    writes.increment ();
+    bytesWritten.add (bytes);
+    if (parent != null)
+      parent.written (bytes);
+  }
+
+  // called from TelnetListener.processRecord() and ConsolePane.sendAID() with the
+  // command before it is wrapped in a TN3270ExtendedCommand
+  public void count (ReplyBuffer message)
+  {
+    if (message instanceof WriteCommand)
+      count (((WriteCommand) message).isEraseWrite () ? CommandType.ERASE_WRITE
+          : CommandType.WRITE);
+    else if (message instanceof WriteStructuredFieldCommand)
+      count (CommandType.WSF);
+    else if (message instanceof EraseAllUnprotectedCommand)
+      count (CommandType.EAU);
+    else if (message instanceof AIDCommand)
+      count (CommandType.AID);
+  }
+
+  public void count (CommandType type)
+  {
+    commands[type.ordinal ()].increment ();
+    if (parent != null)
+      parent.count (type);
+  }
+
+  public long getCommands (CommandType type)
+  {
+    return commands[type.ordinal ()].sum ();
+  }
+
+  public TrafficSnapshot getSnapshot ()
+  {
+    long[] counts = new long[commands.length];
+    for (int i = 0; i < commands.length; i++)
+      counts[i] = commands[i].sum ();
+
+    long now = System.currentTimeMillis ();
+    return new TrafficSnapshot (now, now - created, reads.sum (), bytesRead.sum (),
+        writes.sum (), bytesWritten.sum (), counts);
+  }
+
+  // Passes a snapshot to the consumer every period until the future is cancelled. All
+  // the consumers share one thread of their own, so a slow one only delays the others.
+  public ScheduledFuture<?> scheduleSnapshots (long period, TimeUnit unit,
+      Consumer<TrafficSnapshot> consumer)
+  {
+    return getSnapshotScheduler ()
+        .scheduleAtFixedRate ( () -> consumer.accept (getSnapshot ()), period, period,
+                               unit);
+  }
+
+  private static synchronized ScheduledExecutorService getSnapshotScheduler ()
+  {
+    if (snapshotScheduler == null)
+      snapshotScheduler = Executors.newSingleThreadScheduledExecutor (task ->
+      {
+        Thread thread = new Thread (task, "TrafficSnapshots");
+        thread.setDaemon (true);
+        return thread;
+      });
+    return snapshotScheduler;
+  }
+
+  // called from Console.init() with the -traffic=n switch
+  public static void logTotals (int seconds)
+  {
+    TrafficSnapshot[] previous = { totals.getSnapshot () };
+    totals.scheduleSnapshots (seconds, TimeUnit.SECONDS, snapshot ->
+    {
+      System.out.println ("Traffic: " + snapshot.since (previous[0]));
+      previous[0] = snapshot;
+    });
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // JMX
+  // ---------------------------------------------------------------------------------//
+
+  public synchronized void register (String name)
+  {
+    if (objectName != null)
+      unregister ();
+
+    registerTotals ();
+    objectName = register (this, name);
+  }
+
+  public synchronized void unregister ()
+  {
+    if (objectName == null)
+      return;
+
+    try
+    {
+      ManagementFactory.getPlatformMBeanServer ().unregisterMBean (objectName);
+    }
+    catch (JMException e)
+    {
+      System.out.println ("Unregister failed: " + e);
+    }
+    objectName = null;
+  }
+
+  private static synchronized void registerTotals ()
+  {
+    if (!totalsRegistered)
+    {
+      register (totals, "total");
+      totalsRegistered = true;
+    }
+  }
+
+  private static ObjectName register (TrafficCounters counters, String name)
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer ();
+      ObjectName objectName =
+          new ObjectName (DOMAIN + ":type=Traffic,name=" + ObjectName.quote (name));
+      server.registerMBean (counters, objectName);
+      return objectName;
+    }
+    catch (JMException e)
+    {
+      System.out.println ("Register failed: " + e);
+      return null;
+    }
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // TrafficCountersMXBean interface methods
+  // ---------------------------------------------------------------------------------//
+
+  @Override
+  public long getReads ()
+  {
+    return reads.sum ();
+  }
+
+  @Override
+  public long getBytesRead ()
+  {
+    return bytesRead.sum ();
+  }
+
+  @Override
+  public long getWrites ()
+  {
+    return writes.sum ();
+  }
+
+  @Override
+  public long getBytesWritten ()
+  {
+    return bytesWritten.sum ();
+  }
+
+  @Override
+  public long getWriteCommands ()
+  {
+    return getCommands (CommandType.WRITE);
+  }
+
+  @Override
+  public long getEraseWriteCommands ()
+  {
+    return getCommands (CommandType.ERASE_WRITE);
+  }
+
+  @Override
+  public long getWsfCommands ()
+  {
+    return getCommands (CommandType.WSF);
+  }
+
+  @Override
+  public long getEauCommands ()
+  {
+    return getCommands (CommandType.EAU);
+  }
+
+  @Override
+  public long getAidCommands ()
+  {
+    return getCommands (CommandType.AID);
+  }
+}
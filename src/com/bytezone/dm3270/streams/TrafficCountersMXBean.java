@@ -0,0 +1,25 @@
+package com.bytezone.dm3270.streams;
+
+// The attributes that TrafficCounters publishes through JMX, one MBean per registered
+// connection plus one for the totals of every connection in the process.
+
+public interface TrafficCountersMXBean
+{
+  public long getReads ();
+
+  public long getBytesRead ();
+
+  public long getWrites ();
+
+  public long getBytesWritten ();
+
+  public long getWriteCommands ();
+
+  public long getEraseWriteCommands ();
+
+  public long getWsfCommands ();
+
+  public long getEauCommands ();
+
+  public long getAidCommands ();
+}
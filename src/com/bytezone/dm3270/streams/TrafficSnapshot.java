@@ -0,0 +1,62 @@
+package com.bytezone.dm3270.streams;
+
+import com.bytezone.dm3270.streams.TrafficCounters.CommandType;
+
+// An immutable copy of a connection's TrafficCounters. Each counter is read separately,
+// so a snapshot taken while traffic is flowing may be a record or two out between
+// the counters, but never loses one. Subtracting an earlier snapshot gives the
+// traffic in between, which is what the periodic snapshots are for.
+
+public class TrafficSnapshot
+{
+  public final long time;               // System.currentTimeMillis()
+  public final long elapsed;            // milliseconds covered by the counts
+
+  public final long reads;
+  public final long bytesRead;
+  public final long writes;
+  public final long bytesWritten;
+  private final long[] commands;        // indexed by CommandType.ordinal()
+
+  TrafficSnapshot (long time, long elapsed, long reads, long bytesRead, long writes,
+      long bytesWritten, long[] commands)
+  {
+    this.time = time;
+    this.elapsed = elapsed;
+    this.reads = reads;
+    this.bytesRead = bytesRead;
+    this.writes = writes;
+    this.bytesWritten = bytesWritten;
+    this.commands = commands;
+  }
+
+  public long getCommands (CommandType type)
+  {
+    return commands[type.ordinal ()];
+  }
+
+  // the traffic between an earlier snapshot of the same counters and this one
+  public TrafficSnapshot since (TrafficSnapshot earlier)
+  {
+    long[] difference = new long[commands.length];
+    for (int i = 0; i < commands.length; i++)
+      difference[i] = commands[i] - earlier.commands[i];
+
+    return new TrafficSnapshot (time, time - earlier.time, reads - earlier.reads,
+        bytesRead - earlier.bytesRead, writes - earlier.writes,
+        bytesWritten - earlier.bytesWritten, difference);
+  }
+
+  @Override
+  public String toString ()
+  {
+    StringBuilder text = new StringBuilder ();
+
+    text.append (String.format ("Reads %,d (%,d bytes), Writes %,d (%,d bytes)", reads,
+                                bytesRead, writes, bytesWritten));
+    for (CommandType type : CommandType.values ())
+      text.append (String.format (", %s %,d", type, getCommands (type)));
+
+    return text.toString ();
+  }
+}
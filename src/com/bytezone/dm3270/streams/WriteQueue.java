@@ -0,0 +1,223 @@
+package com.bytezone.dm3270.streams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Outbound queue for a blocking socket (TerminalServer and MainframeServer).
+// Buffers are queued and sent together with a single write() and flush(), instead
+// of one TCP segment per buffer.
+//
+// A connection's read loop brackets each read with beginTurn() and endTurn(). Any
+// buffer written by the reading thread in between (e.g. the replies to a burst of
+// telnet negotiation commands) is held until endTurn(). Buffers written by any
+// other thread are sent straight away, or - if a maximum delay has been set with
+// -writedelay=n - up to n milliseconds later, together with anything else that
+// has arrived in the meantime.
+
+public class WriteQueue
+{
+  private static volatile int maxDelay;         // milliseconds
+  private static ScheduledExecutorService scheduler;
+
+  // totals for every queue, for the summary
+  private static final AtomicLong buffersQueued = new AtomicLong ();
+  private static final AtomicLong physicalWrites = new AtomicLong ();
+
+  private final OutputStream outputStream;
+  private final Queue<byte[]> pending = new ConcurrentLinkedQueue<> ();
+  // a lock rather than synchronized, so a virtual thread blocked in the socket
+  // write does not pin its carrier thread
+  private final ReentrantLock flushLock = new ReentrantLock ();
+  private final AtomicBoolean flushScheduled = new AtomicBoolean ();
+  private final AtomicBoolean flushStarted = new AtomicBoolean ();
+  private volatile Thread turnThread;
+  private byte[] staging = new byte[4096];
+
+  public WriteQueue (OutputStream outputStream)
+  {
+    this.outputStream = outputStream;
+  }
+
+  // called from Console.init() when -writedelay=n is specified
+  public static void setMaxDelay (int milliseconds)
+  {
+    maxDelay = Math.max (0, milliseconds);
+  }
+
+  public static int getMaxDelay ()
+  {
+    return maxDelay;
+  }
+
+  // also used by NioTerminalServer, which flushes on its selector thread instead
+  static synchronized ScheduledExecutorService getScheduler ()
+  {
+    if (scheduler == null)
+      scheduler = Executors.newSingleThreadScheduledExecutor (task ->
+      {
+        Thread thread = new Thread (task, "WriteQueue");
+        thread.setDaemon (true);
+        return thread;
+      });
+    return scheduler;
+  }
+
+  static void countWrite (int buffers)
+  {
+    buffersQueued.addAndGet (buffers);
+    physicalWrites.incrementAndGet ();
+  }
+
+  public static String getSummary ()
+  {
+    long queued = buffersQueued.get ();
+    long writes = physicalWrites.get ();
+    return String.format ("Outbound buffers %,7d in %,d writes", queued, writes);
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called from the read loop
+  // ---------------------------------------------------------------------------------//
+
+  public void beginTurn ()
+  {
+    turnThread = Thread.currentThread ();
+  }
+
+  public void endTurn () throws IOException
+  {
+    turnThread = null;
+    flush ();
+  }
+
+  // ---------------------------------------------------------------------------------//
+  // Called from any thread
+  // ---------------------------------------------------------------------------------//
+
+  public void write (byte[] buffer) throws IOException
+  {
+    pending.add (buffer);
+
+    if (turnThread == Thread.currentThread ())
+      return;                                   // endTurn() will send it
+
+    int delay = maxDelay;
+    if (delay == 0)
+      flush ();
+    else if (flushScheduled.compareAndSet (false, true))
+      getScheduler ().schedule ( () -> scheduledFlush (), delay, TimeUnit.MILLISECONDS);
+  }
+
+  // queue a buffer without sending it - used before a flush() that must happen first
+  public void enqueue (byte[] buffer)
+  {
+    pending.add (buffer);
+  }
+
+  // send what is queued on a thread of its own, for a caller that must never block
+  // in a socket write - at most one such thread at a time
+  public void flushLater ()
+  {
+    if (flushStarted.compareAndSet (false, true))
+      ThreadManager.start ( () -> backgroundFlush (), "WriteQueue flush");
+  }
+
+  public void flush () throws IOException
+  {
+    if (pending.isEmpty ())
+      return;
+
+    flushLock.lock ();
+    try
+    {
+      int totalBuffers = 0;
+      int totalBytes = 0;
+      byte[] single = null;
+      byte[] buffer;
+
+      while ((buffer = pending.poll ()) != null)
+      {
+        if (totalBuffers++ == 0)
+          single = buffer;                      // don't copy if it is on its own
+        else
+        {
+          if (totalBuffers == 2)
+            totalBytes = stage (single, 0);
+          totalBytes = stage (buffer, totalBytes);
+        }
+      }
+
+      if (totalBuffers == 0)
+        return;                                 // another thread sent them
+
+      if (totalBuffers == 1)
+        outputStream.write (single);
+      else
+        outputStream.write (staging, 0, totalBytes);
+
+      outputStream.flush ();
+      countWrite (totalBuffers);
+    }
+    finally
+    {
+      flushLock.unlock ();
+    }
+  }
+
+  public void clear ()
+  {
+    pending.clear ();
+  }
+
+  private int stage (byte[] buffer, int ptr)
+  {
+    if (ptr + buffer.length > staging.length)
+    {
+      byte[] newStaging = new byte[Math.max (staging.length * 2, ptr + buffer.length)];
+      System.arraycopy (staging, 0, newStaging, 0, ptr);
+      staging = newStaging;
+    }
+    System.arraycopy (buffer, 0, staging, ptr, buffer.length);
+    return ptr + buffer.length;
+  }
+
+  private void backgroundFlush ()
+  {
+    try
+    {
+      flush ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+    finally
+    {
+      flushStarted.set (false);
+    }
+
+    if (!pending.isEmpty ())
+      flushLater ();                            // queued while we were finishing
+  }
+
+  private void scheduledFlush ()
+  {
+    flushScheduled.set (false);
+    try
+    {
+      flush ();
+    }
+    catch (IOException e)
+    {
+      e.printStackTrace ();
+    }
+  }
+}
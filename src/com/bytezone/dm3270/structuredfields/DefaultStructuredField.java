@@ -21,8 +21,8 @@ public class DefaultStructuredField extends StructuredField
   public String toString ()
   {
     StringBuilder text = new StringBuilder ();
-    text.append (String.format ("Unknown SF   : %02X%n", data[0]));
-    text.append (Dm3270Utility.toHex (data));
+    text.append (String.format ("Unknown SF   : %02X%n", type));
+    text.append (Dm3270Utility.toHex (getData ()));
     return text.toString ();
   }
 }
\ No newline at end of file
@@ -16,8 +16,8 @@ public class EraseResetSF extends StructuredField
   {
     super (buffer, offset, length);
 
-    assert data[0] == StructuredField.ERASE_RESET;
-    flags = data[1];
+    assert buffer[offset] == StructuredField.ERASE_RESET;
+    flags = buffer[offset + 1];
 
     if ((flags & 0xC0) == 0)
       size = Size.DEFAULT;
@@ -11,14 +11,19 @@ public class Outbound3270DS extends StructuredField
   // wrapper for original write commands - W. EW, EWA, EAU
   public Outbound3270DS (byte[] buffer, int offset, int length)
   {
-    super (buffer, offset, length);             // copies buffer -> data
+    super (buffer, offset, length);             // a view of buffer, not a copy
 
-    assert data[0] == StructuredField.OUTBOUND_3270DS;
-    partitionID = data[1];
+    assert buffer[offset] == StructuredField.OUTBOUND_3270DS;
+    partitionID = buffer[offset + 1];
     assert (partitionID & (byte) 0x80) == 0;    // must be 0x00 - 0x7F
 
     // can only be W/EW/EWA/EAU (i.e. one of the write commands)
-    command = Command.getCommand (buffer, offset + 2, length - 2);
+    command = Command.getCommand (buffer, offset + 2, length - 2, true);
+  }
+
+  public Command getCommand ()
+  {
+    return command;
   }
 
   @Override
@@ -9,8 +9,8 @@ public class QueryReplySF extends StructuredField
   public QueryReplySF (byte[] buffer, int offset, int length)
   {
     super (buffer, offset, length);
-    assert data[0] == StructuredField.QUERY_REPLY;
-    queryReplyField = QueryReplyField.getReplyField (data);
+    assert buffer[offset] == StructuredField.QUERY_REPLY;
+    queryReplyField = QueryReplyField.getReplyField (getData ());     // keeps the copy
   }
 
   // called from ReadStructuredFieldCommand constructor via Command.getReply() (replay)
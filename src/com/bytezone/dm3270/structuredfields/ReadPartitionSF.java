@@ -16,12 +16,12 @@ public class ReadPartitionSF extends StructuredField
   {
     super (buffer, offset, length);
 
-    assert data[0] == StructuredField.READ_PARTITION;
-    partitionID = data[1];
+    assert buffer[offset] == StructuredField.READ_PARTITION;
+    partitionID = buffer[offset + 1];
 
     if (partitionID == (byte) 0xFF)
     {
-      switch (data[2])
+      switch (buffer[offset + 2])
       {
         case (byte) 0x02:
         case (byte) 0x03:
@@ -38,11 +38,17 @@ public class ReadPartitionSF extends StructuredField
       assert (partitionID & (byte) 0x80) == 0;    // must be 0x00 - 0x7F
 
       // can only be RB/RM/RMA (i.e. one of the read commands)
-      command = Command.getCommand (buffer, offset + 2, length - 2);
+      command = Command.getCommand (buffer, offset + 2, length - 2, true);
       System.out.println ("RB/RM/RMA: " + command);
     }
   }
 
+  // a Query or a QueryList, either of which is answered with a QueryReply
+  public boolean isQuery ()
+  {
+    return partitionID == (byte) 0xFF && command != null;
+  }
+
   @Override
   public void process (Screen screen)
   {
@@ -18,7 +18,7 @@ public class SetReplyModeSF extends StructuredField
   {
     super (buffer, offset, length);
 
-    assert data[0] == StructuredField.SET_REPLY_MODE;
+    assert buffer[offset] == StructuredField.SET_REPLY_MODE;
 
     int ptr = offset + 1;
     partition = buffer[ptr++];
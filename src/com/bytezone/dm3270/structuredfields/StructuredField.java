@@ -28,9 +28,11 @@ public abstract class StructuredField extends AbstractTN3270Command
 
   protected byte type;
 
+  // always a view of the record owned by the enclosing WriteStructuredFieldCommand or
+  // ReadStructuredFieldCommand
   public StructuredField (byte[] buffer, int offset, int length)
   {
-    super (buffer, offset, length);
+    super (buffer, offset, length, true);
     type = buffer[offset];
   }
 
@@ -48,6 +50,6 @@ public abstract class StructuredField extends AbstractTN3270Command
   @Override
   public String toString ()
   {
-    return String.format ("StrF: %s", Dm3270Utility.toHex (data).substring (8));
+    return String.format ("StrF: %s", Dm3270Utility.toHex (getData ()).substring (8));
   }
 }
\ No newline at end of file
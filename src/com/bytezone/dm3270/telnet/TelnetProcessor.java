@@ -1,5 +1,7 @@
 package com.bytezone.dm3270.telnet;
 
+import java.util.Arrays;
+
 public class TelnetProcessor
 {
   // command prefix
@@ -24,8 +26,10 @@ public class TelnetProcessor
   public static final byte SB_EOR = 0x19;
   public static final byte SB_TN3270E = 0x28;
 
+  private static final int INITIAL_SIZE = 16500;      // see also SessionReader
+
   // state variables
-  private final byte[] data = new byte[16500];      // see also SessionReader
+  private byte[] data = new byte[INITIAL_SIZE];       // grows to fit the largest record
   private int dataPtr;
   private boolean pending;              // last byte was IAC, must check next byte
   private boolean weirdData;            // when stream starts with two IACs
@@ -47,84 +51,131 @@ public class TelnetProcessor
 
   public void listen (byte... buffer)
   {
-    for (byte thisByte : buffer)
-    {
-      data[dataPtr++] = thisByte;           // store every byte we receive
+    listen (buffer, 0, buffer.length);
+  }
+
+  // lets the caller pass a region of a larger (pooled) buffer without copying it
+  public void listen (byte[] buffer, int offset, int length)
+  {
+    int ptr = offset;
+    int max = offset + length;
 
-      if (thisByte == IAC)
+    while (ptr < max)
+    {
+      // Everything up to the next IAC is record data that only has to be stored, so
+      // find the end of the run and copy it in one go. Only the IACs and the bytes
+      // that follow them need to go through the state machine.
+      if (!pending && command == 0)
       {
-        if (pending)                        // previous byte might have been an IAC
+        int start = ptr;
+        while (ptr < max && buffer[ptr] != IAC)
+          ++ptr;
+
+        int runLength = ptr - start;
+        if (runLength > 0)
         {
-          pending = false;                  // treat it as a data 0xFF
-          --dataPtr;                        // remove the second one
-          if (dataPtr == 1)                 // if there is just that data 0xFF in the
-            weirdData = true;               // buffer, then flag it
+          ensureCapacity (runLength);
+          System.arraycopy (buffer, start, data, dataPtr, runLength);
+          dataPtr += runLength;
+
+          if (ptr == max)
+            break;
         }
-        else
-          pending = true;                   // this byte might be an IAC
-        continue;
       }
 
-      if (pending)                          // previous byte really was an IAC
-      {
-        pending = false;
+      process (buffer[ptr++]);
+    }
+  }
 
-        // first check for a valid 3270 data record
-        if (thisByte == EOR)
-        {
-          commandProcessor.processRecord (data, dataPtr);
-          reset ();
-          continue;
-        }
+  private void process (byte thisByte)
+  {
+    ensureCapacity (1);
+    data[dataPtr++] = thisByte;             // store every byte we receive
 
-        // next remove any non-telnet data
-        if (data[0] != IAC || weirdData)    // some non-telnet data is in the buffer
-        {
-          dataPtr -= 2;                     // hide IAC and this byte
-          commandProcessor.processData (data, dataPtr);
-          reset ();
+    if (thisByte == IAC)
+    {
+      if (pending)                          // previous byte might have been an IAC
+      {
+        pending = false;                    // treat it as a data 0xFF
+        --dataPtr;                          // remove the second one
+        if (dataPtr == 1)                   // if there is just that data 0xFF in the
+          weirdData = true;                 // buffer, then flag it
+      }
+      else
+        pending = true;                     // this byte might be an IAC
+      return;
+    }
 
-          data[dataPtr++] = IAC;            // drop through and process the new byte
-          data[dataPtr++] = thisByte;
-        }
+    if (pending)                            // previous byte really was an IAC
+    {
+      pending = false;
 
-        if (thisByte == SB)                 // leave IAC SB in buffer
-          continue;
+      // first check for a valid 3270 data record
+      if (thisByte == EOR)
+      {
+        commandProcessor.processRecord (data, dataPtr);
+        reset ();
+        return;
+      }
 
-        if (thisByte == SE)
-        {
-          commandProcessor.processTelnetSubcommand (data, dataPtr);
-          reset ();
-          continue;
-        }
+      // next remove any non-telnet data
+      if (data[0] != IAC || weirdData)      // some non-telnet data is in the buffer
+      {
+        dataPtr -= 2;                       // hide IAC and this byte
+        commandProcessor.processData (data, dataPtr);
+        reset ();
 
-        // known three-byte commands
-        if (thisByte == DO || thisByte == DONT || thisByte == WILL | thisByte == WONT)
-        {
-          command = thisByte;               // save it and wait for the third byte
-          continue;
-        }
+        data[dataPtr++] = IAC;              // drop through and process the new byte
+        data[dataPtr++] = thisByte;
+      }
 
-        // known two-byte commands
-        if (thisByte == NOP || thisByte == IP)
-        {
-          commandProcessor.processTelnetCommand (data, dataPtr);
-          reset ();
-          continue;
-        }
+      if (thisByte == SB)                   // leave IAC SB in buffer
+        return;
 
-        System.err.printf ("Unknown command: %02X%n", thisByte);   // handle error somehow
+      if (thisByte == SE)
+      {
+        commandProcessor.processTelnetSubcommand (data, dataPtr);
+        reset ();
+        return;
       }
-      else if (command != 0)                // the third byte has arrived (in thisByte)
+
+      // known three-byte commands
+      if (thisByte == DO || thisByte == DONT || thisByte == WILL | thisByte == WONT)
+      {
+        command = thisByte;                 // save it and wait for the third byte
+        return;
+      }
+
+      // known two-byte commands
+      if (thisByte == NOP || thisByte == IP)
       {
         commandProcessor.processTelnetCommand (data, dataPtr);
         reset ();
+        return;
       }
+
+      System.err.printf ("Unknown command: %02X%n", thisByte);   // handle error somehow
+    }
+    else if (command != 0)                  // the third byte has arrived (in thisByte)
+    {
+      commandProcessor.processTelnetCommand (data, dataPtr);
+      reset ();
     }
   }
 
+  // make room for another 'bytes' bytes of the current record
+  private void ensureCapacity (int bytes)
+  {
+    if (dataPtr + bytes > data.length)
+      data = Arrays.copyOf (data, Math.max (data.length * 2, dataPtr + bytes));
+  }
+
   private void reset ()
   {
+    // don't hang on to the buffer from an unusually large record
+    if (data.length > INITIAL_SIZE * 4)
+      data = new byte[INITIAL_SIZE];
+
     dataPtr = 0;
     command = 0;
     weirdData = false;